@@ -1,2 +1,3 @@
 $(function(){function tabs(tabTit,on,tabCon){$(tabCon).each(function(){$(this).children().eq(0).show();});$(tabTit).each(function(){$(this).children().eq(0).addClass(on);});$(tabTit).children().click(function(){$(this).addClass(on).siblings().removeClass(on);var index=$(tabTit).children().index(this);$(tabCon).children().eq(index).show().siblings().hide();});}
-tabs(".investment_title","on",".investment_con");})
\ No newline at end of file
+function chunks(tabCon,offset){function load(){$(tabCon).children(":visible").find("tr.chunk_next").each(function(){var tr=$(this);if(tr.data("loading")||tr.offset().top-$(window).scrollTop()-$(window).height()>offset){return;}tr.data("loading",true);$.get(tr.attr("data-src"),function(html){tr.replaceWith(html);load();},"html");});}$(window).scroll(load);$(tabCon).siblings().children().click(load);load();}
+tabs(".investment_title","on",".investment_con");chunks(".investment_con",500);})
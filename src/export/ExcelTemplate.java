@@ -42,6 +42,24 @@ public class ExcelTemplate {
         init();
     }
 
+    /**
+     * 通过模板Excel的内容初始化，不再读取磁盘上的文件，
+     * 由{@link ExcelTemplateRegistry}使用缓存的模板内容创建实例
+     *
+     * @param path 模板Excel的路径，仅用于标识模板
+     * @param content 模板Excel的字节数组
+     * */
+    public ExcelTemplate(String path, byte[] content) {
+        this.path = path;
+        try (InputStream is = new ByteArrayInputStream(content)){
+            init(is);
+        } catch (EncryptedDocumentException e) {
+            ex = e;
+        } catch (IOException e) {
+            ex = e;
+        }
+    }
+
     private void init(){
         File file = new File(path);
         if (file.exists() && (path == null
@@ -49,14 +67,7 @@ public class ExcelTemplate {
             ex = new IOException("错误的文件格式");
         else{
             try (InputStream is = new FileInputStream(file)){
-                workbook = WorkbookFactory.create(is);
-                sheets = new Sheet[workbook.getNumberOfSheets()];
-                for(int i = 0;i < sheets.length;i++){
-                    sheets[i] = workbook.getSheetAt(i);
-                }
-                if(sheets.length > 0)
-                    sheet = sheets[0];
-                sheet.setForceFormulaRecalculation(true);
+                init(is);
             } catch (EncryptedDocumentException e) {
                 ex = e;
             } catch (IOException e) {
@@ -65,6 +76,17 @@ public class ExcelTemplate {
         }
     }
 
+    private void init(InputStream is) throws IOException {
+        workbook = WorkbookFactory.create(is);
+        sheets = new Sheet[workbook.getNumberOfSheets()];
+        for(int i = 0;i < sheets.length;i++){
+            sheets[i] = workbook.getSheetAt(i);
+        }
+        if(sheets.length > 0)
+            sheet = sheets[0];
+        sheet.setForceFormulaRecalculation(true);
+    }
+
     private boolean initSheet(int sheetNo){
         if(!examine() || sheetNo < 0 || sheetNo > sheets.length - 1)
             return false;
@@ -0,0 +1,222 @@
+package export;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * 模板Excel的注册中心，缓存模板文件的内容，避免每次创建
+ * {@link ExcelTemplate}都重新读取磁盘。
+ *
+ * 使用{@link WatchService}监听模板所在的目录，模板文件被替换后
+ * 在后台线程中重新解析，解析成功才会原子地替换为新版本；
+ * 已经取出的ExcelTemplate拥有各自的Workbook，继续使用旧版本不受影响。
+ *
+ * @Description: excel模板缓存与热加载
+ * */
+public class ExcelTemplateRegistry implements Closeable {
+    /** 文件变化后延迟重新加载的毫秒数，合并替换文件时产生的多次事件 */
+    private static final long RELOAD_DELAY_MILLIS = 200;
+
+    private final Map<Path, TemplateVersion> versions = new ConcurrentHashMap<>();
+
+    private final Map<Path, ScheduledFuture<?>> pendingReloads = new ConcurrentHashMap<>();
+
+    private final Set<Path> watchedDirs = ConcurrentHashMap.newKeySet();
+
+    private final WatchService watchService;
+
+    private final ScheduledExecutorService reloader;
+
+    private final Thread watcher;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong reloadCount = new AtomicLong();
+
+    private final AtomicLong reloadFailureCount = new AtomicLong();
+
+    private volatile boolean closed;
+
+    public ExcelTemplateRegistry() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        reloader = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "excel-template-reloader");
+            t.setDaemon(true);
+            return t;
+        });
+        watcher = new Thread(this::watch, "excel-template-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * 获取模板，第一次获取时读取文件并开始监听，之后使用缓存的最新版本
+     *
+     * @param path 模板Excel的路径
+     * @return ExcelTemplate 新的模板实例
+     * @throws IOException 模板文件无法读取
+     * */
+    public ExcelTemplate get(String path) throws IOException {
+        Path key = Paths.get(path).toAbsolutePath().normalize();
+        TemplateVersion version = versions.get(key);
+        if (version != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+            version = load(key);
+        }
+        return new ExcelTemplate(path, version.content);
+    }
+
+    /**
+     * 返回模板当前的版本号，模板每重新加载一次版本号加一
+     *
+     * @param path 模板Excel的路径
+     * @return long 版本号，模板未加载时返回-1
+     * */
+    public long getVersion(String path){
+        TemplateVersion version = versions.get(Paths.get(path).toAbsolutePath().normalize());
+        return version == null ? -1 : version.version;
+    }
+
+    /**
+     * 移除模板的缓存，下一次获取时重新读取文件
+     *
+     * @param path 模板Excel的路径
+     * */
+    public void invalidate(String path){
+        versions.remove(Paths.get(path).toAbsolutePath().normalize());
+    }
+
+    public long getHitCount(){
+        return hitCount.get();
+    }
+
+    public long getMissCount(){
+        return missCount.get();
+    }
+
+    public long getReloadCount(){
+        return reloadCount.get();
+    }
+
+    public long getReloadFailureCount(){
+        return reloadFailureCount.get();
+    }
+
+    private TemplateVersion load(Path key) throws IOException {
+        if (closed)
+            throw new IOException("模板注册中心已关闭");
+        Path dir = key.getParent();
+        if (dir != null && watchedDirs.add(dir)) {
+            try {
+                dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+            } catch (IOException e) {
+                watchedDirs.remove(dir);
+                throw e;
+            }
+        }
+        TemplateVersion loaded = new TemplateVersion(1, Files.readAllBytes(key));
+        // 并发加载同一个模板时以先放入的版本为准
+        TemplateVersion existing = versions.putIfAbsent(key, loaded);
+        return existing == null ? loaded : existing;
+    }
+
+    private void watch(){
+        while (!closed) {
+            WatchKey watchKey;
+            try {
+                watchKey = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) watchKey.watchable();
+            for (WatchEvent<?> event : watchKey.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    // 事件丢失，重新加载该目录下所有已缓存的模板
+                    for (Path key : versions.keySet()) {
+                        if (dir.equals(key.getParent()))
+                            scheduleReload(key);
+                    }
+                    continue;
+                }
+                Path key = dir.resolve((Path) event.context());
+                if (versions.containsKey(key))
+                    scheduleReload(key);
+            }
+            if (!watchKey.reset())
+                watchedDirs.remove(dir);
+        }
+    }
+
+    private void scheduleReload(Path key){
+        pendingReloads.compute(key, (k, pending) -> {
+            if (pending != null)
+                pending.cancel(false);
+            // 任务需要知道自己的future，只从pendingReloads中移除自己，不影响之后新安排的重新加载
+            AtomicReference<ScheduledFuture<?>> self = new AtomicReference<>();
+            ScheduledFuture<?> future = reloader.schedule(() -> reload(k, self.get()),
+                    RELOAD_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+            self.set(future);
+            return future;
+        });
+    }
+
+    private void reload(Path key, ScheduledFuture<?> self){
+        pendingReloads.remove(key, self);
+        TemplateVersion current = versions.get(key);
+        if (current == null)
+            return;
+        try {
+            byte[] content = Files.readAllBytes(key);
+            // 先完整解析一次，写了一半或者损坏的文件不会替换掉可用的旧版本
+            if (!new ExcelTemplate(key.toString(), content).examine()) {
+                reloadFailureCount.incrementAndGet();
+                return;
+            }
+            if (versions.replace(key, current, new TemplateVersion(current.version + 1, content)))
+                reloadCount.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            reloadFailureCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        reloader.shutdownNow();
+        watcher.interrupt();
+        watchService.close();
+        versions.clear();
+    }
+
+    @Override
+    public String toString(){
+        return "ExcelTemplateRegistry with " + versions.size() + " templates, hits "
+                + hitCount.get() + ", misses " + missCount.get() + ", reloads " + reloadCount.get();
+    }
+
+    /**
+     * 模板的某一个版本，创建后不再修改
+     * */
+    private static final class TemplateVersion {
+        private final long version;
+
+        private final byte[] content;
+
+        private TemplateVersion(long version, byte[] content) {
+            this.version = version;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package export;
+
+import html.ColumnWidths;
+import html.HSSFEventReader;
+import html.SheetEventListener;
+import html.XSSFEventReader;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Excel导出为csv或tsv，每个sheet一个文件
+ *
+ * 使用与html流式转换相同的{@link XSSFEventReader}和{@link HSSFEventReader}，
+ * 单元格的文本与html中显示的一致（按单元格格式转换，公式使用保存的结果），
+ * 读到一个单元格就写出，内存占用与文件大小无关。
+ * 行号和列号与sheet中保持一致，不存在的行输出为空行，合并区域只在左上角单元格输出值。
+ * 含有分隔符、双引号或换行的值用双引号括起，值中的双引号写成两个。
+ */
+public class ExcelToCsv {
+    /** csv的分隔符 */
+    public static final char CSV = ',';
+
+    /** tsv的分隔符 */
+    public static final char TSV = '\t';
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Excel导出为csv或tsv
+     *
+     * @param sourcePath
+     *          excel文件路径
+     * @param savePath
+     *          存储路径
+     * @param saveName
+     *          存储名称，每个sheet保存为 {saveName}_{sheet编号}.csv 或 .tsv
+     * @param delimiter
+     *          分隔符，{@link #CSV}或{@link #TSV}
+     * @return 生成的文件路径，按sheet的顺序
+     */
+    public static List<String> conversion(String sourcePath, String savePath, String saveName, char delimiter)
+            throws IOException {
+        File source = new File(sourcePath);
+        String extension = delimiter == TSV ? ".tsv" : ".csv";
+        SheetFiles files = new SheetFiles(index -> new File(savePath, saveName + "_" + index + extension), delimiter);
+        FileMagic magic;
+        try (InputStream is = FileMagic.prepareToCheckMagic(new FileInputStream(source))) {
+            magic = FileMagic.valueOf(is);
+        }
+        try {
+            switch (magic) {
+                case OLE2:
+                    try (POIFSFileSystem fs = new POIFSFileSystem(source, true)) {
+                        new HSSFEventReader(fs).read(files);
+                    }
+                    break;
+                case OOXML:
+                    OPCPackage pkg;
+                    try {
+                        pkg = OPCPackage.open(source, PackageAccess.READ);
+                    } catch (InvalidFormatException e) {
+                        throw new IOException("无法读取的xlsx文件", e);
+                    }
+                    try {
+                        // csv中合并区域只在左上角单元格有值，不需要扫描合并区域
+                        new XSSFEventReader(pkg).readCells(files);
+                    } finally {
+                        // 只读打开的文件使用revert关闭
+                        pkg.revert();
+                    }
+                    break;
+                default:
+                    throw new IOException("不是Excel文件: " + source.getPath());
+            }
+        } finally {
+            files.close();
+        }
+        return files.paths;
+    }
+
+    /**
+     * 一个值按需要加上双引号后写出
+     * @param out
+     * @param value
+     * @param delimiter
+     * @throws IOException
+     */
+    private static void writeValue(Writer out, String value, char delimiter) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == delimiter || c == '"' || c == '\n' || c == '\r') {
+                quote = true;
+                break;
+            }
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == '"') {
+                out.write(value, start, i + 1 - start);
+                out.write('"');
+                start = i + 1;
+            }
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+
+    /**
+     * 每个sheet写入一个文件
+     */
+    private static class SheetFiles implements SheetEventListener, Closeable {
+        private final IntFunction<File> fileOf;
+
+        private final char delimiter;
+
+        private final List<String> paths = new ArrayList<>();
+
+        private Writer out;
+
+        /** 下一个需要输出的行号 */
+        private int nextRowNum;
+
+        /** 当前行中下一个需要输出的列号 */
+        private int nextColNum;
+
+        SheetFiles(IntFunction<File> fileOf, char delimiter) {
+            this.fileOf = fileOf;
+            this.delimiter = delimiter;
+        }
+
+        @Override
+        public void startSheet(int sheetIndex, String sheetName, List<CellRangeAddress> mergedRegions,
+                               ColumnWidths columnWidths) throws IOException {
+            File file = fileOf.apply(sheetIndex);
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+                    BUFFER_SIZE);
+            paths.add(file.getPath());
+            nextRowNum = 0;
+        }
+
+        @Override
+        public void startRow(int rowNum) throws IOException {
+            // 不存在的行输出为空行，保持行号不变
+            for (; nextRowNum < rowNum; nextRowNum++) {
+                out.write('\n');
+            }
+            nextColNum = 0;
+        }
+
+        @Override
+        public void cell(int rowNum, int colNum, String value, int styleIndex) throws IOException {
+            // 前一个单元格之后的分隔符，以及不存在的单元格的空值
+            if (nextColNum > 0) {
+                out.write(delimiter);
+            }
+            for (; nextColNum < colNum; nextColNum++) {
+                out.write(delimiter);
+            }
+            nextColNum = colNum + 1;
+            writeValue(out, value, delimiter);
+        }
+
+        @Override
+        public void endRow(int rowNum) throws IOException {
+            out.write('\n');
+            nextRowNum = rowNum + 1;
+        }
+
+        @Override
+        public void endSheet(int sheetIndex) throws IOException {
+            Writer writer = out;
+            out = null;
+            writer.close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // 读取中途出错时关闭还没有写完的文件
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package html;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按内容保存图片等资源文件
+ *
+ * 文件名为内容的SHA-256，相同的图片不论出现在哪个sheet、哪个文件中都只保存一次，
+ * 浏览器也只需要下载一次。没有指定目录时图片以data URI内嵌在html中。
+ */
+final class AssetStore {
+    private final File directory;
+
+    private final String urlPrefix;
+
+    /** 本次转换中已经保存过的内容，键为文件名 */
+    private final Map<String, String> urls = new HashMap<>();
+
+    /**
+     * @param directory 保存的目录，为null时使用data URI
+     * @param urlPrefix html中引用文件的地址前缀
+     */
+    AssetStore(File directory, String urlPrefix) {
+        this.directory = directory;
+        this.urlPrefix = urlPrefix;
+    }
+
+    /**
+     * 保存资源文件
+     * @param data 文件内容
+     * @param extension 文件扩展名
+     * @param mimeType 内嵌为data URI时使用的类型
+     * @return html中引用的地址
+     * @throws IOException
+     */
+    synchronized String store(byte[] data, String extension, String mimeType) throws IOException {
+        if (directory == null) {
+            return "data:" + mimeType + ";base64," + Base64.getEncoder().encodeToString(data);
+        }
+        String name = ConversionCache.sha256Hex(data) + (extension == null || extension.isEmpty() ? "" : "." + extension);
+        String url = urls.get(name);
+        if (url != null) {
+            return url;
+        }
+        File file = new File(directory, name);
+        if (!file.exists()) {
+            if (!directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("无法创建目录: " + directory.getPath());
+            }
+            // 其他转换可能同时写入相同的文件，先写临时文件再改名
+            File temp = File.createTempFile(name, ".tmp", directory);
+            try {
+                Files.write(temp.toPath(), data);
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+        }
+        url = urlPrefix + name;
+        urls.put(name, url);
+        return url;
+    }
+}
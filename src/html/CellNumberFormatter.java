@@ -0,0 +1,80 @@
+package html;
+
+import org.apache.poi.ss.usermodel.DataFormatter;
+
+import java.util.Arrays;
+
+/**
+ * 按单元格的数据格式把数字转换为显示的文本
+ *
+ * 使用Excel的格式字符串（与{@link DataFormatter}相同的规则），每种格式在一次转换中只编译一次。
+ * 对象不是线程安全的，每个转换（并行渲染时每个sheet）各自创建，不需要加锁。
+ */
+final class CellNumberFormatter {
+    /**
+     * 中文Excel的短日期（14）和区域相关的保留日期格式在POI中没有对应的格式字符串，
+     * 与原来的输出保持一致，显示为年-月-日
+     */
+    private static final String LOCAL_DATE_FORMAT = "yyyy-mm-dd";
+
+    /** 没有格式字符串或其他保留格式按常规格式输出 */
+    private static final String GENERAL_FORMAT = "General";
+
+    private static final int SHORT_DATE_FORMAT = 14;
+
+    private final DataFormatter formatter = new DataFormatter();
+
+    private final boolean date1904;
+
+    /** 按数据格式的索引保存实际使用的格式字符串 */
+    private String[] formatStrings = new String[64];
+
+    /**
+     * @param date1904 workbook是否使用1904日期系统
+     */
+    CellNumberFormatter(boolean date1904) {
+        this.date1904 = date1904;
+    }
+
+    /**
+     * @param value 单元格的数值
+     * @param formatIndex 数据格式的索引
+     * @param formatString 数据格式
+     * @return
+     */
+    String format(double value, int formatIndex, String formatString) {
+        return formatter.formatRawCellContents(value, formatIndex, resolve(formatIndex, formatString), date1904);
+    }
+
+    private String resolve(int formatIndex, String formatString) {
+        if (formatIndex < 0) {
+            return formatString == null ? GENERAL_FORMAT : formatString;
+        }
+        if (formatIndex >= formatStrings.length) {
+            formatStrings = Arrays.copyOf(formatStrings, Math.max(formatIndex + 1, formatStrings.length * 2));
+        }
+        String resolved = formatStrings[formatIndex];
+        if (resolved == null) {
+            if (formatIndex == SHORT_DATE_FORMAT) {
+                resolved = LOCAL_DATE_FORMAT;
+            } else if (formatString == null || formatString.startsWith("reserved")) {
+                resolved = isLocalDateFormat(formatIndex) ? LOCAL_DATE_FORMAT : GENERAL_FORMAT;
+            } else {
+                resolved = formatString;
+            }
+            formatStrings[formatIndex] = resolved;
+        }
+        return resolved;
+    }
+
+    /**
+     * 中文Excel中区域相关的日期格式：27-31、36（年月、月日、年月日）和50-54、57、58，
+     * 中间的32-35、55、56是时间格式
+     * @param formatIndex
+     * @return
+     */
+    private static boolean isLocalDateFormat(int formatIndex) {
+        return (formatIndex >= 27 && formatIndex <= 31) || formatIndex == 36
+                || (formatIndex >= 50 && formatIndex <= 54) || formatIndex == 57 || formatIndex == 58;
+    }
+}
@@ -0,0 +1,59 @@
+package html;
+
+import org.apache.poi.util.Units;
+
+import java.util.Arrays;
+
+/**
+ * 流式读取时收集的sheet列宽，单位与{@link org.apache.poi.ss.usermodel.Sheet#getColumnWidth(int)}
+ * 相同，为字符宽度的1/256
+ */
+public final class ColumnWidths {
+    private int[] widths = new int[0];
+
+    private int defaultWidth = 8 * 256;
+
+    /**
+     * 获取列宽，没有单独设置宽度的列返回默认列宽
+     * @param col 列号
+     * @return
+     */
+    public int getColumnWidth(int col) {
+        if (col < widths.length && widths[col] >= 0) {
+            return widths[col];
+        }
+        return defaultWidth;
+    }
+
+    /**
+     * 获取列的像素宽度，默认列宽和单独设置的列宽都按字符宽度换算
+     * @param col 列号
+     * @return
+     */
+    public float getColumnWidthInPixels(int col) {
+        return getColumnWidth(col) / 256f * Units.DEFAULT_CHARACTER_WIDTH;
+    }
+
+    public int getDefaultColumnWidth() {
+        return defaultWidth;
+    }
+
+    void setDefaultColumnWidth(int defaultWidth) {
+        this.defaultWidth = defaultWidth;
+    }
+
+    /**
+     * 设置一段列的宽度
+     * @param firstCol 开始的列号
+     * @param lastCol 结束的列号（包含）
+     * @param width 列宽
+     */
+    void setColumnWidth(int firstCol, int lastCol, int width) {
+        if (lastCol >= widths.length) {
+            int oldLength = widths.length;
+            widths = Arrays.copyOf(widths, lastCol + 1);
+            Arrays.fill(widths, oldLength, widths.length, -1);
+        }
+        Arrays.fill(widths, firstCol, lastCol + 1, width);
+    }
+}
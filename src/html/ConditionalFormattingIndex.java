@@ -0,0 +1,90 @@
+package html;
+
+import org.apache.poi.ss.formula.ConditionalFormattingEvaluator;
+import org.apache.poi.ss.formula.EvaluationConditionalFormatRule;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.util.*;
+
+/**
+ * 一个sheet上条件格式的匹配结果
+ *
+ * 每条规则只计算一次匹配的单元格，按单元格地址建立索引，
+ * 渲染时通过行列号直接取出该单元格匹配的规则。
+ * 色阶、数据条和图标集按区域整体计算，见{@link RangeFormatting}。
+ */
+final class ConditionalFormattingIndex {
+    private static final ConditionalFormattingIndex EMPTY =
+            new ConditionalFormattingIndex(Collections.<Long, List<EvaluationConditionalFormatRule>>emptyMap(),
+                    Collections.<Long, RangeFormatting.CellFormat>emptyMap());
+
+    private final Map<Long, List<EvaluationConditionalFormatRule>> rules;
+
+    private final Map<Long, RangeFormatting.CellFormat> rangeFormats;
+
+    private ConditionalFormattingIndex(Map<Long, List<EvaluationConditionalFormatRule>> rules,
+                                       Map<Long, RangeFormatting.CellFormat> rangeFormats) {
+        this.rules = rules;
+        this.rangeFormats = rangeFormats;
+    }
+
+    /**
+     * 计算sheet上所有条件格式规则匹配的单元格
+     * @param evaluator 整个workbook共用的条件格式评估器
+     * @param sheet
+     * @return
+     */
+    static ConditionalFormattingIndex of(ConditionalFormattingEvaluator evaluator, Sheet sheet) {
+        if (sheet.getSheetConditionalFormatting().getNumConditionalFormattings() == 0) {
+            return EMPTY;
+        }
+        Map<Long, List<EvaluationConditionalFormatRule>> rules = new HashMap<>();
+        // 规则已按优先级排序，单元格上的规则列表保持同样的顺序
+        for (EvaluationConditionalFormatRule rule : evaluator.getFormatRulesForSheet(sheet)) {
+            // 按区域计算的规则对区域内每个单元格都匹配，不逐个单元格评估
+            if (RangeFormatting.isRangeRule(rule.getRule())) {
+                continue;
+            }
+            for (Cell cell : evaluator.getMatchingCells(rule)) {
+                rules.computeIfAbsent(key(cell.getRowIndex(), cell.getColumnIndex()), k -> new ArrayList<>(2))
+                        .add(rule);
+            }
+        }
+        Map<Long, RangeFormatting.CellFormat> rangeFormats = RangeFormatting.evaluate(sheet);
+        return rules.isEmpty() && rangeFormats.isEmpty() ? EMPTY : new ConditionalFormattingIndex(rules, rangeFormats);
+    }
+
+    /**
+     * 获取单元格上匹配成功的条件格式规则
+     * @param row
+     * @param col
+     * @return 按优先级排序的规则，没有时返回空列表
+     */
+    List<EvaluationConditionalFormatRule> getRules(int row, int col) {
+        if (rules.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<EvaluationConditionalFormatRule> cellRules = rules.get(key(row, col));
+        return cellRules == null ? Collections.<EvaluationConditionalFormatRule>emptyList() : cellRules;
+    }
+
+    /**
+     * 获取单元格上色阶、数据条和图标集的结果
+     * @param row
+     * @param col
+     * @return 没有时返回null
+     */
+    RangeFormatting.CellFormat getRangeFormat(int row, int col) {
+        return rangeFormats.isEmpty() ? null : rangeFormats.get(key(row, col));
+    }
+
+    boolean isEmpty() {
+        return rules.isEmpty() && rangeFormats.isEmpty();
+    }
+
+    /** Excel最多16384列，列号占低14位 */
+    static long key(int row, int col) {
+        return ((long) row << 14) | col;
+    }
+}
@@ -0,0 +1,200 @@
+package html;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 转换结果的缓存键
+ *
+ * 缓存键由源文件内容的SHA-256和转换选项计算，文件名相同但内容被修改时会得到新的键。
+ * 源文件的摘要按(大小, 修改时间, inode)记录在内存中，文件没有变化时不再重新读取计算。
+ * 各转换器在解析源文件之前检查缓存：自动生成文件名的转换器直接使用键作为文件名，
+ * 由调用者指定文件名的转换器在结果旁边保存一个.key文件记录生成时的键。
+ */
+public final class ConversionCache {
+    private static final int MAX_ENTRIES = 1024;
+
+    private static final Map<String, Digest> digests = Collections.synchronizedMap(
+            new LinkedHashMap<String, Digest>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Digest> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            });
+
+    private ConversionCache() {
+    }
+
+    /**
+     * 计算转换结果的缓存键
+     * @param source 源文件
+     * @param variant 转换器和影响输出的选项
+     * @return 十六进制的SHA-256
+     * @throws IOException
+     */
+    public static String key(File source, String variant) throws IOException {
+        return sha256Hex(contentHash(source) + "|" + variant);
+    }
+
+    static String sha256Hex(String value) {
+        return hex(sha256().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    static String sha256Hex(byte[] value) {
+        return hex(sha256().digest(value));
+    }
+
+    /**
+     * 源文件内容的SHA-256，文件的大小、修改时间和inode都没有变化时使用上次的结果
+     * @param source
+     * @return
+     * @throws IOException
+     */
+    public static String contentHash(File source) throws IOException {
+        Path path = source.toPath().toAbsolutePath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        String name = path.toString();
+        Digest digest = digests.get(name);
+        if (digest != null && digest.matches(attributes)) {
+            return digest.hash;
+        }
+        MessageDigest md = sha256();
+        try (InputStream is = Files.newInputStream(path)) {
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                md.update(buffer, 0, n);
+            }
+        }
+        String hash = hex(md.digest());
+        digests.put(name, new Digest(attributes, hash));
+        return hash;
+    }
+
+    /**
+     * 结果文件是否由相同的缓存键生成
+     * @param output 转换结果
+     * @param key 缓存键
+     * @return
+     */
+    public static boolean isCurrent(File output, String key) {
+        File keyFile = keyFile(output);
+        if (!output.exists() || !keyFile.exists()) {
+            return false;
+        }
+        try {
+            return key.equals(new String(Files.readAllBytes(keyFile.toPath()), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 结果写完后记录生成时的缓存键
+     * @param output 转换结果
+     * @param key 缓存键
+     * @throws IOException
+     */
+    public static void markCurrent(File output, String key) throws IOException {
+        Files.write(keyFile(output).toPath(), key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 重新生成结果之前删除记录的缓存键，生成失败时旧的结果不会再被当作有效的缓存
+     * @param output 转换结果
+     * @throws IOException
+     */
+    public static void invalidate(File output) throws IOException {
+        Files.deleteIfExists(keyFile(output).toPath());
+    }
+
+    /**
+     * 写入转换结果，先写同一目录下的临时文件再改名，
+     * 结果文件要么不存在要么是完整的，已经存在的结果文件可以直接使用
+     * @param output 转换结果
+     * @param content 写出内容，不需要关闭输出流
+     * @throws IOException 写入失败时不会留下结果文件
+     */
+    static void writeAtomically(File output, Content content) throws IOException {
+        File dir = output.getAbsoluteFile().getParentFile();
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("无法创建目录: " + dir.getPath());
+        }
+        File temp = File.createTempFile(output.getName(), ".tmp", dir);
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+                content.writeTo(out);
+            }
+            try {
+                Files.move(temp.toPath(), output.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * 转换结果的内容
+     */
+    interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private static File keyFile(File output) {
+        return new File(output.getPath() + ".key");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // 所有的Java平台都必须支持SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static final class Digest {
+        private final long size;
+
+        private final long lastModified;
+
+        private final Object fileKey;
+
+        private final String hash;
+
+        Digest(BasicFileAttributes attributes, String hash) {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.fileKey = attributes.fileKey();
+            this.hash = hash;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                    && lastModified == attributes.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, attributes.fileKey());
+        }
+    }
+}
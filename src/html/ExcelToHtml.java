@@ -10,22 +10,94 @@ import org.apache.poi.ss.util.CellRangeAddress;
 import org.apache.poi.xssf.usermodel.*;
 
 import java.io.*;
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Excel转换为html
+ *
+ * 每个实例只转换一个workbook，转换过程中的状态（公式评估器、样式表等）都保存在实例中，
+ * 不同的workbook可以在多个线程中同时转换。颜色、边框等无状态的方法仍为静态方法。
+ */
 public class ExcelToHtml {
-    static FormulaEvaluator evaluator;
-
     private static final Pattern pattern = Pattern.compile("^IFERROR\\((.*),{1}(.*)\\)$");
 
-    private static CellStyle conditionalFormulaStyle;
+    private final Workbook workbook;
+
+    private final ExcelToHtmlOptions options;
+
+    private final FormulaEvaluator evaluator;
+
+    private final ConditionalFormattingEvaluator conditionalFormattingEvaluator;
+
+    private final boolean isXSSF;
+
+    private final boolean date1904;
+
+    private final CellNumberFormatter numberFormatter;
+
+    /** 是否使用文件中保存的公式计算结果 */
+    private final boolean cachedFormulaResults;
+
+    private final HtmlStyleSheet styleSheet;
+
+    /** 每个公式是否可以计算的分析结果 */
+    private final FormulaPlans formulaPlans;
+
+    /** sheet中图片的保存位置，并行渲染的sheet共用 */
+    private final AssetStore assets;
 
-    private static boolean isXSSF = true;
+    /**
+     * @param wb 需要转换的workbook
+     * @param options 转换选项
+     */
+    public ExcelToHtml(Workbook wb, ExcelToHtmlOptions options) {
+        this.workbook = wb;
+        this.options = options;
+        this.evaluator = wb.getCreationHelper().createFormulaEvaluator();
+        // 整个workbook共用一个条件格式评估器，与公式评估器共享计算缓存
+        this.conditionalFormattingEvaluator =
+                new ConditionalFormattingEvaluator(wb, (WorkbookEvaluatorProvider) evaluator);
+        this.styleSheet = new HtmlStyleSheet(wb);
+        this.formulaPlans = new FormulaPlans(wb);
+        this.assets = new AssetStore(options.getAssetDirectory(), options.getAssetUrlPrefix());
+        if (wb instanceof HSSFWorkbook) {
+            isXSSF = false;
+            date1904 = ((HSSFWorkbook) wb).getInternalWorkbook().isUsing1904DateWindowing();
+        } else {
+            isXSSF = true;
+            date1904 = wb instanceof XSSFWorkbook && ((XSSFWorkbook) wb).isDate1904();
+        }
+        numberFormatter = new CellNumberFormatter(date1904);
+        // workbook要求打开时重新计算，保存的结果不可信
+        cachedFormulaResults = options.isCachedFormulaResults() && !wb.getForceFormulaRecalculation();
+    }
 
-    private static Workbook workbook;
+    /**
+     * 并行渲染一个sheet时使用，公式评估器和样式表不能跨线程共用，每个sheet单独创建
+     * @param parent
+     */
+    private ExcelToHtml(ExcelToHtml parent) {
+        this.workbook = parent.workbook;
+        this.options = parent.options;
+        this.evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+        this.conditionalFormattingEvaluator =
+                new ConditionalFormattingEvaluator(workbook, (WorkbookEvaluatorProvider) evaluator);
+        this.styleSheet = new HtmlStyleSheet(workbook);
+        this.formulaPlans = new FormulaPlans(workbook);
+        this.assets = parent.assets;
+        this.isXSSF = parent.isXSSF;
+        this.date1904 = parent.date1904;
+        this.numberFormatter = new CellNumberFormatter(date1904);
+        this.cachedFormulaResults = parent.cachedFormulaResults;
+    }
 
     /**
      * Excel转换为html
@@ -40,30 +112,174 @@ public class ExcelToHtml {
      */
     static String conversion(String sourcePath,String savePath,String saveName)
             throws FileNotFoundException,IOException{
-        String path = null;
-        String html = "";
-        try(InputStream is = new FileInputStream(new File(sourcePath))) {
-            Workbook wb = WorkbookFactory.create(is);
-            workbook = wb;
-            evaluator = wb.getCreationHelper().createFormulaEvaluator();
-            conditionalFormulaStyle = wb.createCellStyle();
-            if (wb instanceof XSSFWorkbook) {
-                XSSFWorkbook xWb = (XSSFWorkbook) wb;
-                html = getExcelInfo(xWb,true);
-            }else if(wb instanceof HSSFWorkbook){
-                isXSSF = false;
-                HSSFWorkbook hWb = (HSSFWorkbook) wb;
-                html = getExcelInfo(hWb,true);
+        return conversion(sourcePath, savePath, saveName, ExcelToHtmlOptions.defaults());
+    }
+
+    /**
+     * Excel转换为html
+     *
+     * @param sourcePath
+     *          excel文件路径
+     * @param savePath
+     *          存储路径
+     * @param saveName
+     *          存储名称
+     * @param options
+     *          转换选项
+     * @return
+     */
+    public static String conversion(String sourcePath, String savePath, String saveName, ExcelToHtmlOptions options)
+            throws FileNotFoundException,IOException{
+        File source = new File(sourcePath);
+        File file = new File(savePath + File.separator + saveName + ".html");
+        if (options.getAssetDirectory() == null) {
+            // 同一个输出目录中的所有文件共用一个图片目录
+            options = options.withAssetDirectory(new File(savePath, "assets"), "assets/");
+        }
+        // 源文件的内容和选项都没有变化时直接使用上次的结果，不解析workbook
+        String key = ConversionCache.key(source, "html|" + options.cacheKey());
+        if(ConversionCache.isCurrent(file, key)){
+            return file.getPath();
+        }
+        // 先估计文件的规模，超过限制的文件不解析，大文件改用流式转换
+        WorkbookProbe probe = WorkbookProbe.of(source, options);
+        OutputLimit limit = new OutputLimit(options.getMaxOutputBytes());
+        // 先删除旧的缓存键，新的结果写完之前旧文件不会被当作有效的缓存；
+        // 结果先写临时文件再改名，不会留下写了一半的html
+        ConversionCache.invalidate(file);
+        if (probe.isStreaming(options)) {
+            ExcelToHtmlOptions streamingOptions = options;
+            ConversionCache.writeAtomically(file, out -> {
+                Writer writer = limit.wrap(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+                if (probe.isXlsx()) {
+                    XSSFEventToHtml.convert(source, writer, streamingOptions);
+                } else {
+                    HSSFEventToHtml.convert(source, writer, streamingOptions);
+                }
+                writer.flush();
+            });
+        } else {
+            HtmlChunkOutput chunks = null;
+            if (options.getChunkRows() > 0) {
+                chunks = limit.wrap(HtmlChunkOutput.directory(new File(savePath, saveName + "_files"), saveName + "_files/"));
+            }
+            if (options.isIncremental()) {
+                conversionIncremental(source, file, new File(savePath, saveName + "_sheets"), options, chunks, limit);
+            } else {
+                try(InputStream is = new FileInputStream(source);
+                    Workbook wb = WorkbookFactory.create(is)) {
+                    ExcelToHtml converter = new ExcelToHtml(wb, options);
+                    HtmlChunkOutput sheetChunks = chunks;
+                    ConversionCache.writeAtomically(file, out -> {
+                        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                        converter.writeTo(writer, sheetChunks, limit);
+                    });
+                }
+            }
+        }
+        ConversionCache.markCurrent(file, key);
+        return file.getPath();
+    }
+
+    /**
+     * 按sheet增量转换：每个sheet的html片段按sheet的指纹保存在fragmentDir中，
+     * 只有指纹变化的sheet才解析workbook重新生成，其余的sheet直接使用上次的片段
+     *
+     * @param source excel文件
+     * @param file 生成的html文件
+     * @param fragmentDir sheet片段的目录
+     * @param options 转换选项
+     * @param chunks 后续行块的输出，为null时不分块
+     * @param limit 生成的html的大小限制
+     * @throws IOException
+     */
+    private static void conversionIncremental(File source, File file, File fragmentDir, ExcelToHtmlOptions options,
+                                              HtmlChunkOutput chunks, OutputLimit limit) throws IOException {
+        if (!fragmentDir.mkdirs() && !fragmentDir.isDirectory()) {
+            throw new IOException("无法创建目录: " + fragmentDir.getPath());
+        }
+        SheetFingerprints fingerprints = SheetFingerprints.of(source, options.isCachedFormulaResults());
+        File[] fragments = new File[fingerprints.size()];
+        Set<String> fragmentNames = new HashSet<>();
+        List<Integer> changed = new ArrayList<>();
+        for (int i = 0; i < fingerprints.size(); i++) {
+            String name = ConversionCache.sha256Hex(fingerprints.get(i) + "|" + options.cacheKey()) + ".html";
+            fragments[i] = new File(fragmentDir, name);
+            fragmentNames.add(name);
+            if (!fragments[i].exists()) {
+                changed.add(i);
             }
-            File file = new File(savePath + File.separator + saveName + ".html");
-            if(file.exists()){
-                return file.getPath();
+        }
+        if (!changed.isEmpty()) {
+            try(InputStream is = new FileInputStream(source);
+                Workbook wb = WorkbookFactory.create(is)) {
+                if (wb.getNumberOfSheets() != fragments.length) {
+                    throw new IOException("无法读取sheet: " + source.getPath());
+                }
+                new ExcelToHtml(wb, options).writeSheetFragments(changed, fragments, chunks, limit);
             }
-            try(OutputStream os = new FileOutputStream(file)){
-                os.write(html.getBytes());
+        }
+        ConversionCache.writeAtomically(file, out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            Writer limited = limit.wrap(writer);
+            StringBuffer sb = new StringBuffer();
+            appendDocumentStart(sb, fingerprints.getSheetNames(), options.getResourceDomain());
+            write(limited, sb);
+            for (int i = 0; i < fragments.length; i++) {
+                // 本次生成的片段写入时已计入限制，只计算上次留下的片段
+                copy(fragments[i], changed.contains(i) ? writer : limited);
             }
+            appendDocumentEnd(sb);
+            write(limited, sb);
+            writer.flush();
+        });
+        // 删除已经不再使用的片段
+        File[] existing = fragmentDir.listFiles();
+        if (existing != null) {
+            for (File fragment : existing) {
+                if (!fragmentNames.contains(fragment.getName())) {
+                    fragment.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Excel转换为供前端表格组件使用的json，格式见{@link JsonGridWriter}
+     *
+     * @param sourcePath
+     *          excel文件路径
+     * @param savePath
+     *          存储路径
+     * @param saveName
+     *          存储名称
+     * @param options
+     *          转换选项
+     * @return 生成的json文件路径
+     */
+    public static String conversionToJson(String sourcePath, String savePath, String saveName, ExcelToHtmlOptions options)
+            throws IOException{
+        File source = new File(sourcePath);
+        File file = new File(savePath + File.separator + saveName + ".json");
+        String key = ConversionCache.key(source, "json|" + options.cacheKey());
+        if(ConversionCache.isCurrent(file, key)){
+            return file.getPath();
         }
-        return path;
+        // json没有流式转换，只检查限制
+        WorkbookProbe.of(source, options);
+        OutputLimit limit = new OutputLimit(options.getMaxOutputBytes());
+        ConversionCache.invalidate(file);
+        try(InputStream is = new FileInputStream(source);
+            Workbook wb = WorkbookFactory.create(is)) {
+            ExcelToHtml converter = new ExcelToHtml(wb, options);
+            ConversionCache.writeAtomically(file, out -> {
+                Writer writer = limit.wrap(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+                converter.writeJson(writer);
+                writer.flush();
+            });
+        }
+        ConversionCache.markCurrent(file, key);
+        return file.getPath();
     }
 
     /**
@@ -73,146 +289,549 @@ public class ExcelToHtml {
      * @return
      */
     static String getExcelInfo(Workbook wb, boolean isWithStyle){
-        workbook = wb;
-        evaluator = wb.getCreationHelper().createFormulaEvaluator();
-        conditionalFormulaStyle = wb.createCellStyle();
-        if(wb instanceof HSSFWorkbook){
-            isXSSF = false;
+        return new ExcelToHtml(wb, ExcelToHtmlOptions.defaults().withStyle(isWithStyle)).toHtml();
+    }
+
+    /**
+     * 转换为html字符串，大文件应使用{@link #writeTo(Writer)}
+     * @return
+     */
+    public String toHtml(){
+        StringWriter writer = new StringWriter();
+        try {
+            writeTo(writer);
+        } catch (IOException e) {
+            // StringWriter不会抛出IOException
+            throw new UncheckedIOException(e);
         }
-        String domain = System.getProperty("BASF-DOMAIN");
-        domain = domain == null ? "" : domain;
+        return writer.toString();
+    }
+
+    /**
+     * 以UTF-8编码输出html
+     * @param os 输出流，不会被关闭
+     * @throws IOException
+     */
+    public void writeTo(OutputStream os) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        writeTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * 输出html，每输出完一行就写入writer，内存中只保留当前的一行
+     * @param out 输出html的writer，不会被关闭
+     * @throws IOException
+     */
+    public void writeTo(Writer out) throws IOException {
+        writeTo(out, null);
+    }
+
+    /**
+     * 输出html，选项中设置了分块行数时，每个sheet只有第一块写入out，其余的块写入chunks
+     * @param out 输出html的writer，不会被关闭
+     * @param chunks 后续行块的输出，为null时不分块
+     * @throws IOException
+     */
+    public void writeTo(Writer out, HtmlChunkOutput chunks) throws IOException {
+        writeTo(out, chunks, new OutputLimit(0));
+    }
+
+    /**
+     * 输出html，写入out的内容和并行渲染时sheet的临时文件都计入limit，
+     * 临时文件拼接到out时不再重复计算
+     * @param out 输出html的writer，由这个方法计入限制，不会被关闭
+     * @param chunks 后续行块的输出，为null时不分块
+     * @param limit 输出大小限制
+     * @throws IOException
+     */
+    void writeTo(Writer out, HtmlChunkOutput chunks, OutputLimit limit) throws IOException {
+        Workbook wb = workbook;
+        Writer limited = limit.wrap(out);
         StringBuffer sb = new StringBuffer();
-        sb.append("<!DOCTYPE html><html><head>")
-                .append("<script language=\"javascript\" src=\""+domain+"WEB-JSP/js/jquery.min.js\"></script>")
-                .append("<script language=\"javascript\" src=\""+domain+"WEB-JSP/js/common.js\"></script>")
-                .append("<link type=\"text/css\" rel=\"stylesheet\" href=\""+domain+"WEB-JSP/css/style.css\" />")
-                .append("</head><body>");
+        List<String> sheetNames = new ArrayList<>();
+        for(int i = 0; i < wb.getNumberOfSheets(); i++){
+            sheetNames.add(wb.getSheetName(i));
+        }
+        appendDocumentStart(sb, sheetNames, options.getResourceDomain());
+        write(limited, sb);
+        if (options.isParallelSheets() && wb.getNumberOfSheets() > 1) {
+            writeSheetsParallel(out, limited, chunks, limit);
+        } else {
+            for(int i = 0; i < wb.getNumberOfSheets(); i++){
+                writeSheet(i, limited, chunks);
+            }
+        }
+        appendDocumentEnd(sb);
+        write(limited, sb);
+        out.flush();
+    }
 
-        sb.append("<div class=\"investment_f\">").append("<div class=\"investment_title\">");
+    /**
+     * 第一个sheet在当前线程中直接写入out，其余的sheet在ForkJoinPool中并行渲染到临时文件，
+     * 然后按sheet的顺序拼接到out中。临时文件写入时已计入限制，拼接时直接写入不计入限制的out
+     */
+    private void writeSheetsParallel(Writer out, Writer limited, HtmlChunkOutput chunks, OutputLimit limit) throws IOException {
+        List<ForkJoinTask<File>> tasks = new ArrayList<>();
+        int consumed = 0;
+        try {
+            for(int i = 1; i < workbook.getNumberOfSheets(); i++){
+                ExcelToHtml renderer = new ExcelToHtml(this);
+                int sheetIndex = i;
+                tasks.add(ForkJoinPool.commonPool().submit(() -> renderer.writeSheetToTempFile(sheetIndex, chunks, limit)));
+            }
+            writeSheet(0, limited, chunks);
+            for (ForkJoinTask<File> task : tasks) {
+                File file = getResult(task);
+                consumed++;
+                try {
+                    copy(file, out);
+                } finally {
+                    file.delete();
+                }
+            }
+        } finally {
+            // 出错时等待其余的sheet结束并删除临时文件
+            for (int i = consumed; i < tasks.size(); i++) {
+                try {
+                    tasks.get(i).get().delete();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // 已在前面抛出第一个错误
+                }
+            }
+        }
+    }
 
-        for(int i = 0; i < wb.getNumberOfSheets(); i++){//设置切换按钮
-            String sheetName = wb.getSheetName(i);
-            if(i==0){
-                sb.append("<div class=\"on\">"+sheetName+"</div>");
-            }else{
-                sb.append("<div>"+sheetName+"</div>");
+    private File writeSheetToTempFile(int sheetIndex, HtmlChunkOutput chunks, OutputLimit limit) throws IOException {
+        File file = File.createTempFile("excel2html", ".html");
+        writeSheetToFile(sheetIndex, file, chunks, limit);
+        return file;
+    }
+
+    /**
+     * 重新生成指纹发生变化的sheet的html片段，先写入临时文件，写完后改名，
+     * 中途出错不会留下不完整的片段
+     * @param sheets 需要生成的sheet编号
+     * @param fragments 每个sheet的片段文件
+     * @param chunks 后续行块的输出，为null时不分块
+     * @param limit 输出大小限制，片段写入时计入
+     * @throws IOException
+     */
+    private void writeSheetFragments(List<Integer> sheets, File[] fragments, HtmlChunkOutput chunks,
+                                     OutputLimit limit) throws IOException {
+        // 片段会在以后的转换中单独使用，每个片段需要包含自己用到的所有样式，各自使用新的样式表
+        if (!options.isParallelSheets() || sheets.size() < 2) {
+            for (int sheetIndex : sheets) {
+                new ExcelToHtml(this).writeSheetFragment(sheetIndex, fragments[sheetIndex], chunks, limit);
             }
+            return;
         }
-        sb.append("</div>").append("<div class=\"investment_con\">");
-        for(int i = 0; i < wb.getNumberOfSheets(); i++){
-            sb.append("<div class=\"investment_con_list\">");
+        List<ForkJoinTask<File>> tasks = new ArrayList<>();
+        for (int sheetIndex : sheets) {
+            ExcelToHtml renderer = new ExcelToHtml(this);
+            tasks.add(ForkJoinPool.commonPool().submit(
+                    () -> renderer.writeSheetFragment(sheetIndex, fragments[sheetIndex], chunks, limit)));
+        }
+        IOException error = null;
+        for (ForkJoinTask<File> task : tasks) {
+            // 等待所有的sheet结束，抛出第一个错误
+            try {
+                getResult(task);
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
 
-            Sheet sheet = wb.getSheetAt(i);
+    private File writeSheetFragment(int sheetIndex, File fragment, HtmlChunkOutput chunks,
+                                    OutputLimit limit) throws IOException {
+        File temp = new File(fragment.getPath() + ".tmp");
+        writeSheetToFile(sheetIndex, temp, chunks, limit);
+        Files.move(temp.toPath(), fragment.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return fragment;
+    }
 
-            // get conditional formatting in the sheet
-            SheetConditionalFormatting formatting = sheet.getSheetConditionalFormatting();
+    private void writeSheetToFile(int sheetIndex, File file, HtmlChunkOutput chunks, OutputLimit limit) throws IOException {
+        try (Writer writer = limit.wrap(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)))) {
+            writeSheet(sheetIndex, writer, chunks);
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            throw e;
+        }
+    }
 
-            int formattingsNum = formatting.getNumConditionalFormattings();
+    private static void copy(File file, Writer out) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            char[] buffer = new char[8192];
+            int n;
+            while ((n = reader.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+
+    /**
+     * 输出json格式的表格数据：稀疏的单元格、按编号索引的样式表、合并区域和列宽
+     * @param out 输出json的writer，不会被关闭
+     * @throws IOException
+     */
+    public void writeJson(Writer out) throws IOException {
+        JsonGridWriter json = new JsonGridWriter(out);
+        json.startDocument();
+        for(int i = 0; i < workbook.getNumberOfSheets(); i++){
+            writeSheetJson(i, json);
+        }
+        for (Map.Entry<String, String> rule : styleSheet.getRules().entrySet()) {
+            json.style(rule.getKey(), rule.getValue());
+        }
+        json.endDocument();
+        out.flush();
+    }
+
+    private void writeSheetJson(int i, JsonGridWriter json) throws IOException {
+        Sheet sheet = workbook.getSheetAt(i);
+        ConditionalFormattingIndex conditionalFormattings =
+                ConditionalFormattingIndex.of(conditionalFormattingEvaluator, sheet);
+        MergedRegionGrid merged = MergedRegionGrid.of(sheet);
+        UsedRange range = options.isSparse() ? UsedRange.of(sheet, merged) : UsedRange.all(sheet);
+
+        int columns = 0;
+        for (int index = 0; index < range.size(); index++) {
+            columns = Math.max(columns, range.getColumnCount(index));
+        }
+        int[] columnWidths = new int[columns];
+        for (int col = 0; col < columns; col++) {
+            columnWidths[col] = sheet.isColumnHidden(col) ? 0 : Math.round(sheet.getColumnWidthInPixels(col));
+        }
+        json.startSheet(sheet.getSheetName(), columnWidths, merged);
 
-            ConditionalFormatting[] conditionalFormattings = new ConditionalFormatting[0];
-            if (formattingsNum != 0){
-                conditionalFormattings = new ConditionalFormatting[formattingsNum];
-                // get all conditional formatting
-                for (int j = 0; j < formattingsNum; j++) {
-                    ConditionalFormatting conditionalFormatting = formatting.getConditionalFormattingAt(j);
-                    conditionalFormattings[j] = conditionalFormatting;
+        for (int index = 0; index < range.size(); index++) {
+            int rowNum = range.getRowNum(index);
+            Row row = sheet.getRow(rowNum);
+            if (row == null) {
+                continue;
+            }
+            int lastColNum = range.getColumnCount(index);
+            for (int colNum = 0; colNum < lastColNum; colNum++) {
+                Cell cell = row.getCell(colNum);
+                if (cell == null) {
+                    continue;
+                }
+                String value = getCellValue(cell);
+                CellStyle cellStyle = cell.getCellStyle();
+                String overlay = options.isWithStyle() ? getConditionalStyle(cell, conditionalFormattings) : null;
+                boolean hasValue = value != null && !value.isEmpty();
+                if (!hasValue && overlay == null && !UsedRange.hasVisibleFormat(cellStyle)) {
+                    continue;
+                }
+                if (options.isWithStyle()) {
+                    json.cell(rowNum, colNum, value, styleSheet.getStyleClass(cellStyle.getIndex() & 0xffff, overlay));
+                } else if (hasValue) {
+                    json.cell(rowNum, colNum, value, null);
                 }
             }
+        }
+        json.endSheet();
+    }
 
-            sb.append("<div class='tab"+i+"'>");
+    private static File getResult(ForkJoinTask<File> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("sheet渲染被中断");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            // ForkJoinTask把Callable抛出的受检异常包装为RuntimeException，跨线程取结果时还会再复制一层
+            Throwable wrapped = cause;
+            while (wrapped instanceof RuntimeException && wrapped.getCause() != null) {
+                wrapped = wrapped.getCause();
+            }
+            if (wrapped instanceof IOException) {
+                cause = wrapped;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
 
-            int lastRowNum = sheet.getLastRowNum();//获取最后一行的编号
-            Map<String, String> map[] = getRowSpanColSpanMap(sheet);
-            sb.append("<table style='border-collapse:collapse;' width='100%'>");
-            Row row = null;
-            Cell cell = null;
+    /**
+     * 输出一个sheet
+     * @param i sheet的编号
+     * @param out 输出html的writer
+     * @param chunks 后续行块的输出，为null时不分块
+     * @throws IOException
+     */
+    private void writeSheet(int i, Writer out, HtmlChunkOutput chunks) throws IOException {
+        Workbook wb = workbook;
+        boolean isWithStyle = options.isWithStyle();
+        int chunkRows = chunks == null ? 0 : options.getChunkRows();
+        StringBuffer sb = new StringBuffer();
+        Sheet sheet = wb.getSheetAt(i);
 
-            for (int rowNum = sheet.getFirstRowNum(); rowNum <= lastRowNum; rowNum++) {//遍历获取每一行
-                row = sheet.getRow(rowNum);
-                if (row == null) {
+        // 预先计算sheet上所有条件格式规则匹配的单元格
+        ConditionalFormattingIndex conditionalFormattings =
+                ConditionalFormattingIndex.of(conditionalFormattingEvaluator, sheet);
+
+        MergedRegionGrid merged = MergedRegionGrid.of(sheet);
+        // 需要输出的行和列，稀疏模式下跳过空行、隐藏的行列和末尾的空单元格
+        UsedRange range = options.isSparse() ? UsedRange.of(sheet, merged) : UsedRange.all(sheet);
+
+        // 列宽只计算一次，写在colgroup中，单元格上不再输出宽度
+        appendSheetStart(sb, i, isWithStyle ? getColumnWidths(sheet, range) : null);
+        SheetPictures pictures = SheetPictures.of(sheet, range, assets);
+        Row row = null;
+        Cell cell = null;
+
+        // 当前行块的范围，不分块时整个sheet为一块
+        int chunkIndex = 0;
+        int chunkStart = range.size() > 0 ? range.getRowNum(0) : 0;
+        int chunkEnd = chunkRows > 0 ? chunkStart + chunkRows - 1 : Integer.MAX_VALUE;
+        Writer target = out;
+        Writer chunk = null;
+        try {
+            for (int index = 0; index < range.size(); index++) {//遍历获取每一行
+                int rowNum = range.getRowNum(index);
+                if (rowNum > chunkEnd) {
+                    // 当前块写满，在末尾放置下一块的占位行，之后的行写入新的块
+                    chunkIndex++;
+                    sb.append("<tr class='chunk_next' data-src='" + chunks.url(i, chunkIndex) + "'><td>&nbsp;</td></tr>");
+                    write(target, sb);
+                    if (chunk != null) {
+                        chunk.close();
+                    }
+                    chunk = chunks.open(i, chunkIndex);
+                    target = chunk;
+                    chunkStart = rowNum;
+                    chunkEnd = rowNum + chunkRows - 1;
+                }
+                if (range.hasGapBefore(index)) {
+                    // 连续跳过的行只输出一个占位行
                     sb.append("<tr><td >&nbsp;&nbsp;</td></tr>");
+                }
+                row = sheet.getRow(rowNum);
+                if (row == null && !merged.hasRegions(rowNum)) {
+                    String pictureHtml = pictures.getHtml(index, 0);
+                    sb.append("<tr><td >").append(pictureHtml == null ? "" : pictureHtml).append("&nbsp;&nbsp;</td></tr>");
+                    write(target, sb);
                     continue;
                 }
                 sb.append("<tr>");
-                int lastColNum = row.getLastCellNum();//获取最后一列
+                int rowStart = sb.length();
+                int firstColNum = -1;    // 这一行输出的第一个单元格的列号
+                // 文件中不存在但与合并区域相交的行同样逐列输出，合并区域的rowspan计算了这些行
+                int lastColNum = Math.max(range.getColumnCount(index), merged.getLastColumnInRow(rowNum) + 1);//获取最后一列
                 for (int colNum = 0; colNum < lastColNum; colNum++) {//遍历每一列
-                    cell = row.getCell(colNum);
+                    int region = merged.find(rowNum, colNum);
+                    if (region < 0 && range.isColumnHidden(colNum)) {
+                        continue;
+                    }
+                    if (region >= 0 && range.getColSpan(merged, region) == 0) {
+                        continue;    // 合并区域的列全部隐藏
+                    }
+                    if (region >= 0 && !merged.isFirstCell(region, rowNum, colNum)) {
+                        if (rowNum == chunkStart && merged.getFirstRow(region) < chunkStart
+                                && merged.getFirstColumn(region) == colNum) {
+                            // 合并区域跨越了行块，在新块的第一行补上剩余部分
+                            firstColNum = firstColNum < 0 ? colNum : firstColNum;
+                            sb.append("<td rowspan= '" + rowSpan(merged, region, rowNum, chunkEnd) + "' colspan= '"+ range.getColSpan(merged, region) + "'>&nbsp;</td>");
+                        }
+                        continue;    // 被合并的单元格，已由左上角单元格的rowspan/colspan占据
+                    }
+                    firstColNum = firstColNum < 0 ? colNum : firstColNum;
+                    cell = row == null ? null : row.getCell(colNum);
                     if (cell == null) {    //特殊情况 空白的单元格会返回null
-                        sb.append("<td>&nbsp;</td>");
+                        if (region >= 0) {
+                            sb.append("<td rowspan= '" + rowSpan(merged, region, rowNum, chunkEnd) + "' colspan= '"+ range.getColSpan(merged, region) + "'>&nbsp;</td>");
+                        } else {
+                            sb.append("<td>&nbsp;</td>");
+                        }
                         continue;
                     }
 
-                    String stringValue = getCellValue(cell,conditionalFormattings);
-                    if (map[0].containsKey(rowNum + "," + colNum)) {
-                        String pointString = map[0].get(rowNum + "," + colNum);
-                        map[0].remove(rowNum + "," + colNum);
-                        int bottomeRow = Integer.valueOf(pointString.split(",")[0]);
-                        int bottomeCol = Integer.valueOf(pointString.split(",")[1]);
-                        int rowSpan = bottomeRow - rowNum + 1;
-                        int colSpan = bottomeCol - colNum + 1;
-                        sb.append("<td rowspan= '" + rowSpan + "' colspan= '"+ colSpan + "' ");
-                    } else if (map[1].containsKey(rowNum + "," + colNum)) {
-                        map[1].remove(rowNum + "," + colNum);
-                        continue;
+                    String stringValue = getCellValue(cell);
+                    if (region >= 0) {
+                        sb.append("<td rowspan= '" + rowSpan(merged, region, rowNum, chunkEnd) + "' colspan= '"+ range.getColSpan(merged, region) + "' ");
                     } else {
                         sb.append("<td ");
                     }
 
                     //判断是否需要样式
+                    RangeFormatting.CellFormat rangeFormat = null;
                     if(isWithStyle){
-                        dealExcelStyle(wb, sheet, cell, sb);//处理单元格样式
+                        rangeFormat = conditionalFormattings.getRangeFormat(rowNum, colNum);
+                        dealExcelStyle(cell, getConditionalStyle(cell, conditionalFormattings), sb);//处理单元格样式
                     }
 
                     sb.append(">");
-                    if (stringValue == null || "".equals(stringValue.trim())) {
-                        sb.append("&nbsp;&nbsp;&nbsp;");
-                    } else {
-                        // 将ascii码为160的空格转换为html下的空格（ ）
-                        sb.append(stringValue.replace(String.valueOf((char) 160),"&nbsp;&nbsp;"));
+                    if (rangeFormat != null && rangeFormat.getIcon() != null) {
+                        sb.append(rangeFormat.getIcon());
                     }
+                    appendCellValue(sb, rangeFormat != null && rangeFormat.isValueHidden() ? null : stringValue);
                     sb.append("</td>");
                 }
+                if (!pictures.isEmpty()) {
+                    appendPictures(sb, pictures.getHtml(index, Math.max(firstColNum, 0)), rowStart, firstColNum);
+                }
                 sb.append("</tr>");
+                styleSheet.flush(sb);
+                write(target, sb);
+            }
+        } finally {
+            if (chunk != null) {
+                chunk.close();
             }
+        }
 
-            sb.append("</table>");
-            sb.append("</div>").append("</div>");
+        // 最后一个输出的行之后的图片
+        String pictureHtml = pictures.getHtml(range.size(), 0);
+        if (pictureHtml != null) {
+            sb.append("<tr><td >").append(pictureHtml).append("&nbsp;&nbsp;</td></tr>");
+        }
+        appendSheetEnd(sb);
+        write(out, sb);
+    }
+
+    /**
+     * 把图片放入一行的第一个单元格中，这一行没有单元格时单独输出一个单元格
+     * @param sb
+     * @param pictureHtml 图片的html，为null时不输出
+     * @param rowStart 这一行第一个单元格在sb中的位置
+     * @param firstColNum 第一个单元格的列号，小于0表示没有单元格
+     */
+    private static void appendPictures(StringBuffer sb, String pictureHtml, int rowStart, int firstColNum) {
+        if (pictureHtml == null) {
+            return;
         }
+        if (firstColNum < 0) {
+            sb.append("<td >").append(pictureHtml).append("</td>");
+        } else {
+            sb.insert(sb.indexOf(">", rowStart) + 1, pictureHtml);
+        }
+    }
+
+    /**
+     * 合并区域从rowNum开始在当前行块中占据的行数
+     */
+    private static int rowSpan(MergedRegionGrid merged, int region, int rowNum, int chunkEnd) {
+        return Math.min(merged.getLastRow(region), chunkEnd) - rowNum + 1;
+    }
+
+    /**
+     * 把缓冲区中的内容写入writer并清空缓冲区
+     */
+    private static void write(Writer out, StringBuffer sb) throws IOException {
+        out.append(sb);
+        sb.setLength(0);
+    }
+
+    /**
+     * 输出html的头部和sheet的切换按钮
+     * @param sb
+     * @param sheetNames
+     */
+    static void appendDocumentStart(StringBuffer sb, List<String> sheetNames) {
+        appendDocumentStart(sb, sheetNames, ExcelToHtmlOptions.defaults().getResourceDomain());
+    }
+
+    /**
+     * 输出html的头部和sheet的切换按钮
+     * @param sb
+     * @param sheetNames
+     * @param domain js和css的地址前缀
+     */
+    static void appendDocumentStart(StringBuffer sb, List<String> sheetNames, String domain) {
+        sb.append("<!DOCTYPE html><html><head>")
+                .append("<meta charset=\"utf-8\">")
+                .append("<script language=\"javascript\" src=\""+domain+"WEB-JSP/js/jquery.min.js\"></script>")
+                .append("<script language=\"javascript\" src=\""+domain+"WEB-JSP/js/common.js\"></script>")
+                .append("<link type=\"text/css\" rel=\"stylesheet\" href=\""+domain+"WEB-JSP/css/style.css\" />")
+                .append("</head><body>");
+
+        sb.append("<div class=\"investment_f\">").append("<div class=\"investment_title\">");
+
+        for(int i = 0; i < sheetNames.size(); i++){//设置切换按钮
+            String sheetName = sheetNames.get(i);
+            if(i==0){
+                sb.append("<div class=\"on\">"+sheetName+"</div>");
+            }else{
+                sb.append("<div>"+sheetName+"</div>");
+            }
+        }
+        sb.append("</div>").append("<div class=\"investment_con\">");
+    }
+
+    static void appendDocumentEnd(StringBuffer sb) {
         sb.append("</div></body></html>");
-        return sb.toString();
+    }
+
+    static void appendSheetStart(StringBuffer sb, int sheetIndex) {
+        appendSheetStart(sb, sheetIndex, null);
+    }
+
+    /**
+     * @param sb
+     * @param sheetIndex
+     * @param columnWidths 每一列的像素宽度，输出为colgroup并使用固定的表格布局；为null时由浏览器自动布局
+     */
+    static void appendSheetStart(StringBuffer sb, int sheetIndex, int[] columnWidths) {
+        sb.append("<div class=\"investment_con_list\">");
+        sb.append("<div class='tab"+sheetIndex+"'>");
+        if (columnWidths == null || columnWidths.length == 0) {
+            sb.append("<table style='border-collapse:collapse;' width='100%'>");
+            return;
+        }
+        int tableWidth = 0;
+        for (int width : columnWidths) {
+            tableWidth += width;
+        }
+        sb.append("<table style='border-collapse:collapse;table-layout:fixed;width:" + tableWidth + "px;'>");
+        sb.append("<colgroup>");
+        for (int width : columnWidths) {
+            sb.append("<col style='width:" + width + "px;'>");
+        }
+        sb.append("</colgroup>");
     }
 
     /**
-     * 获取合并单元格信息
+     * 需要输出的每一列的像素宽度，隐藏而不输出的列不包括在内
      * @param sheet
+     * @param range
      * @return
      */
-    static Map<String, String>[] getRowSpanColSpanMap(Sheet sheet) {
-
-        Map<String, String> map0 = new HashMap<String, String>();
-        Map<String, String> map1 = new HashMap<String, String>();
-        int mergedNum = sheet.getNumMergedRegions();
-        CellRangeAddress range = null;
-        for (int i = 0; i < mergedNum; i++) {
-            range = sheet.getMergedRegion(i);
-            int topRow = range.getFirstRow();
-            int topCol = range.getFirstColumn();
-            int bottomRow = range.getLastRow();
-            int bottomCol = range.getLastColumn();
-            map0.put(topRow + "," + topCol, bottomRow + "," + bottomCol);
-            int tempRow = topRow;
-            while (tempRow <= bottomRow) {
-                int tempCol = topCol;
-                while (tempCol <= bottomCol) {
-                    map1.put(tempRow + "," + tempCol, "");
-                    tempCol++;
-                }
-                tempRow++;
+    private static int[] getColumnWidths(Sheet sheet, UsedRange range) {
+        int columns = 0;
+        for (int index = 0; index < range.size(); index++) {
+            columns = Math.max(columns, range.getColumnCount(index));
+        }
+        int[] widths = new int[columns];
+        int count = 0;
+        for (int col = 0; col < columns; col++) {
+            if (!range.isColumnHidden(col)) {
+                widths[count++] = Math.round(sheet.getColumnWidthInPixels(col));
             }
-            map1.remove(topRow + "," + topCol);
         }
-        Map[] map = { map0, map1 };
-        return map;
+        return Arrays.copyOf(widths, count);
+    }
+
+    static void appendSheetEnd(StringBuffer sb) {
+        sb.append("</table>");
+        sb.append("</div>").append("</div>");
     }
 
     /**
@@ -220,37 +839,11 @@ public class ExcelToHtml {
      * @param cell
      * @return
      */
-    static String getCellValue(Cell cell,ConditionalFormatting[] conditionalFormattings) {
+    String getCellValue(Cell cell) {
         String result = new String();
         switch (cell.getCellType()) {
             case NUMERIC:// 数字类型
-                if (DateUtil.isCellDateFormatted(cell)) {// 处理日期格式、时间格式
-                    SimpleDateFormat sdf = null;
-                    if (cell.getCellStyle().getDataFormat() == HSSFDataFormat.getBuiltinFormat("h:mm")) {
-                        sdf = new SimpleDateFormat("HH:mm");
-                    } else {// 日期
-                        sdf = new SimpleDateFormat("yyyy-MM-dd");
-                    }
-                    Date date = cell.getDateCellValue();
-                    result = sdf.format(date);
-                } else if (cell.getCellStyle().getDataFormat() == 58) {
-                    // 处理自定义日期格式：m月d日(通过判断单元格的格式id解决，id的值是58)
-                    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-                    double value = cell.getNumericCellValue();
-                    Date date = DateUtil
-                            .getJavaDate(value);
-                    result = sdf.format(date);
-                } else {
-                    double value = cell.getNumericCellValue();
-                    CellStyle style = cell.getCellStyle();
-                    DecimalFormat format = new DecimalFormat();
-                    String temp = style.getDataFormatString();
-                    // 单元格设置成常规
-                    if ("General".equals(temp)) {
-                        format.applyPattern("#");
-                    }
-                    result = format.format(value);
-                }
+                result = formatNumber(cell, cell.getNumericCellValue());
                 break;
             case STRING:// String类型
                 result = cell.getRichStringCellValue().toString();
@@ -259,141 +852,227 @@ public class ExcelToHtml {
                 result = "";
                 break;
             case FORMULA:
-                try{
-                    CellValue cellValue = evaluator.evaluate(cell);
-                    if (cellValue.getCellType() == CellType.STRING){
-                        result = cellValue.getStringValue();
-                    }
-                    else if(cellValue.getCellType() == CellType.NUMERIC){
-                        result = Double.toString(cellValue.getNumberValue());
-                    }
-                } catch (Exception e){
-                    String formula = cell.getCellFormula();
-                    Matcher matcher = pattern.matcher(formula);
-                    if (matcher.find()){
-                        String value = matcher.group();
-                        String[] strs = value.split(",");
-                        int length = 0;
-                        if ((length = strs.length) > 0){
-                            String errorValue = strs[length - 1];
-                            if (Objects.nonNull(errorValue) && errorValue.length() > 1){
-                                result = errorValue.substring(0,errorValue.length() - 1);
-                                cell.setCellValue(result);
-                                break;
-                            }
-                        }
-                    }
-                    result = "";
-                }
+                result = getFormulaValue(cell);
                 break;
             default:
                 result = "";
                 break;
         }
 
-        // cell上匹配成功的条件格式规则
-        List<EvaluationConditionalFormatRule> mathcerRules = getMatchingConditionalFormattingForCell(cell);
+        return result;
+    }
+
+    /**
+     * 公式单元格的内容，按公式的预先分析结果选择计算、使用保存的结果或IFERROR的默认值
+     * @param cell
+     * @return
+     */
+    private String getFormulaValue(Cell cell) {
+        boolean hasCachedResult = hasCachedFormulaResult(cell);
+        if (cachedFormulaResults && hasCachedResult) {
+            return getCachedFormulaValue(cell);
+        }
+        switch (formulaPlans.get(cell, hasCachedResult)) {
+            case EVALUATE:
+                String result = evaluateFormula(cell);
+                if (result != null) {
+                    return result;
+                }
+                // 预先分析没有发现的问题，同样的公式以后不再计算
+                formulaPlans.markNotEvaluable(cell);
+                return hasCachedResult ? getCachedFormulaValue(cell) : getFallbackValue(cell.getCellFormula());
+            case CACHED:
+                return getCachedFormulaValue(cell);
+            default:
+                return getFallbackValue(cell.getCellFormula());
+        }
+    }
+
+    /**
+     * @param cell
+     * @return 计算结果，计算失败时返回null
+     */
+    private String evaluateFormula(Cell cell) {
+        try{
+            CellValue cellValue = evaluator.evaluate(cell);
+            if (cellValue.getCellType() == CellType.STRING){
+                return cellValue.getStringValue();
+            }
+            else if(cellValue.getCellType() == CellType.NUMERIC){
+                return formatNumber(cell, cellValue.getNumberValue());
+            }
+            return "";
+        } catch (RuntimeException e){
+            return null;
+        }
+    }
+
+    /**
+     * 按单元格的数据格式输出数字，数字单元格和公式的数字结果相同
+     * @param cell
+     * @param value
+     * @return
+     */
+    private String formatNumber(Cell cell, double value) {
+        CellStyle style = cell.getCellStyle();
+        return numberFormatter.format(value, style.getDataFormat(), style.getDataFormatString());
+    }
+
+    /**
+     * 不能计算的公式，如果是IFERROR则取出错时的默认值
+     * @param formula
+     * @return
+     */
+    private static String getFallbackValue(String formula) {
+        Matcher matcher = pattern.matcher(formula);
+        if (matcher.find()){
+            String value = matcher.group();
+            String[] strs = value.split(",");
+            int length = 0;
+            if ((length = strs.length) > 0){
+                String errorValue = strs[length - 1];
+                if (Objects.nonNull(errorValue) && errorValue.length() > 1){
+                    return errorValue.substring(0,errorValue.length() - 1);
+                }
+            }
+        }
+        return "";
+    }
+
+    /**
+     * 单元格上条件格式覆盖原样式的css声明，包括填充色、色阶和数据条
+     * 填充色规则优先于色阶
+     * @param cell
+     * @param conditionalFormattings
+     * @return 没有条件格式时返回null
+     */
+    String getConditionalStyle(Cell cell, ConditionalFormattingIndex conditionalFormattings) {
+        String fill = getConditionalFill(cell, conditionalFormattings);
+        RangeFormatting.CellFormat rangeFormat =
+                conditionalFormattings.getRangeFormat(cell.getRowIndex(), cell.getColumnIndex());
+        if (rangeFormat == null) {
+            return fill == null ? null : "background-color:" + fill + ";";
+        }
+        if (fill == null) {
+            fill = rangeFormat.getFill();
+        }
+        StringBuilder css = new StringBuilder();
+        if (fill != null) {
+            css.append("background-color:").append(fill).append(';');
+        }
+        if (rangeFormat.getBar() != null) {
+            css.append(rangeFormat.getBar());
+        }
+        return css.length() == 0 ? null : css.toString();
+    }
+
+    /**
+     * 单元格上条件格式的填充色，不修改workbook，只在输出时覆盖原样式的背景色
+     * @param cell
+     * @param conditionalFormattings
+     * @return css颜色，没有匹配的规则时返回null
+     */
+    String getConditionalFill(Cell cell, ConditionalFormattingIndex conditionalFormattings) {
+        // cell上匹配成功的条件格式规则，按优先级排序，与Excel一样使用第一个有填充色的规则
+        List<EvaluationConditionalFormatRule> mathcerRules =
+                conditionalFormattings.getRules(cell.getRowIndex(), cell.getColumnIndex());
 
         for (EvaluationConditionalFormatRule ruleEvaluation:mathcerRules){
             ConditionalFormattingRule cFRule = ruleEvaluation.getRule();
             PatternFormatting patternFormatting;
             if ((patternFormatting = cFRule.getPatternFormatting()) != null){
                 // 获取填充色
-                Color color = patternFormatting.getFillBackgroundColorColor();
                 // 暂时只处理了 PatternFormatting 的填充色，后续有需再添加去了
-                addConditionStyle(cell,color);
+                String color = toCssColor(patternFormatting.getFillBackgroundColorColor());
+                if (color != null) {
+                    return color;
+                }
             }
         }
-        return result;
+        return null;
     }
 
-    private static void addConditionStyle(Cell cell,Color color){
-        if (cell == null || color == null)
-            return;
-        conditionalFormulaStyle = workbook.createCellStyle();
-        if (isXSSF){
-            ((XSSFCellStyle)conditionalFormulaStyle).setFillForegroundColor((XSSFColor) color);
+    private String toCssColor(Color color) {
+        if (color instanceof XSSFColor) {
+            String argb = ((XSSFColor) color).getARGBHex();
+            return argb == null ? null : "#" + argb.substring(2);
         }
-        else {
-            conditionalFormulaStyle.setFillForegroundColor(((HSSFColor)color).getIndex());
+        if (color instanceof HSSFColor) {
+            String rgb = convertToStardColor((HSSFColor) color);
+            return rgb == null || rgb.isEmpty() ? null : rgb;
         }
-        // 符合条件需要添加指定样式
-        cell.setCellStyle(conditionalFormulaStyle);
+        return null;
     }
 
     /**
-     * 处理表格样式
-     * @param wb
-     * @param sheet
+     * xlsx中没有v元素的公式单元格没有保存计算结果，xls的公式记录总是带有结果
      * @param cell
+     * @return
+     */
+    private static boolean hasCachedFormulaResult(Cell cell) {
+        return !(cell instanceof XSSFCell) || ((XSSFCell) cell).getRawValue() != null;
+    }
+
+    /**
+     * 公式单元格保存的计算结果，输出与计算公式时相同
+     * @param cell
+     * @return
+     */
+    private String getCachedFormulaValue(Cell cell) {
+        switch (cell.getCachedFormulaResultType()) {
+            case STRING:
+                return cell.getRichStringCellValue().getString();
+            case NUMERIC:
+                return formatNumber(cell, cell.getNumericCellValue());
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * 输出单元格的内容
      * @param sb
+     * @param stringValue
      */
-    static void dealExcelStyle(Workbook wb, Sheet sheet, Cell cell, StringBuffer sb){
+    static void appendCellValue(StringBuffer sb, String stringValue) {
+        if (stringValue == null || "".equals(stringValue.trim())) {
+            sb.append("&nbsp;&nbsp;&nbsp;");
+        } else {
+            // 将ascii码为160的空格转换为html下的空格（ ）
+            sb.append(stringValue.replace(String.valueOf((char) 160),"&nbsp;&nbsp;"));
+        }
+    }
+
+    /**
+     * 处理表格样式，单元格只引用样式对应的class，列宽由colgroup决定
+     * @param cell
+     * @param overlay 条件格式覆盖的css声明，没有时为null
+     * @param sb
+     */
+    void dealExcelStyle(Cell cell, String overlay, StringBuffer sb){
 
         CellStyle cellStyle = cell.getCellStyle();
         if (cellStyle != null) {
-            short alignment = cellStyle.getAlignment().getCode();
-            sb.append("align='" + convertAlignToHtml(alignment) + "' ");//单元格内容的水平对齐方式
-            short verticalAlignment = cellStyle.getAlignment().getCode();
-            sb.append("valign='"+ convertVerticalAlignToHtml(verticalAlignment)+ "' ");//单元格中内容的垂直排列方式
-
-            if (wb instanceof XSSFWorkbook) {
-
-                XSSFFont xf = ((XSSFCellStyle) cellStyle).getFont();
-                sb.append("style='");
-                if(xf.getBold())
-                    sb.append("font-weight:bold;"); // 字体加粗
-                sb.append("font-size: " + xf.getFontHeight() / 2 + "%;"); // 字体大小
-                int columnWidth = sheet.getColumnWidth(cell.getColumnIndex()) ;
-                sb.append("width:" + columnWidth + "px;");
-
-                XSSFColor xc = xf.getXSSFColor();
-                if (xc != null && !"".equals(xc)) {
-                    sb.append("color:#" + xc.getARGBHex().substring(2) + ";"); // 字体颜色
-                }
-                XSSFColor bgColor = (XSSFColor) cellStyle.getFillForegroundColorColor();
-                if (bgColor != null && !"".equals(bgColor)) {
-                    sb.append("background-color:#" + bgColor.getARGBHex().substring(2) + ";"); // 背景颜色
-                }
-                BorderStyle border = cellStyle.getBorderBottom();
-                sb.append(getBorderStyle(0,border.getCode(), ((XSSFCellStyle) cellStyle).getTopBorderXSSFColor()));
-                sb.append(getBorderStyle(1,border.getCode(), ((XSSFCellStyle) cellStyle).getRightBorderXSSFColor()));
-                sb.append(getBorderStyle(2,border.getCode(), ((XSSFCellStyle) cellStyle).getBottomBorderXSSFColor()));
-                sb.append(getBorderStyle(3,border.getCode(), ((XSSFCellStyle) cellStyle).getLeftBorderXSSFColor()));
-
-            }else if(wb instanceof HSSFWorkbook){
-
-                HSSFFont hf = ((HSSFCellStyle) cellStyle).getFont(wb);
-                short fontColor = hf.getColor();
-                sb.append("style='");
-                HSSFPalette palette = ((HSSFWorkbook) wb).getCustomPalette(); // 类HSSFPalette用于求的颜色的国际标准形式
-                HSSFColor hc = palette.getColor(fontColor);
-                if(hf.getBold())
-                    sb.append("font-weight:bold;"); // 字体加粗
-                sb.append("font-size: " + hf.getFontHeight() / 2 + "%;"); // 字体大小
-                String fontColorStr = convertToStardColor(hc);
-                if (fontColorStr != null && !"".equals(fontColorStr.trim())) {
-                    sb.append("color:" + fontColorStr + ";"); // 字体颜色
-                }
-                int columnWidth = sheet.getColumnWidth(cell.getColumnIndex()) ;
-                sb.append("width:" + columnWidth + "px;");
-                short bgColor = cellStyle.getFillForegroundColor();
-                hc = palette.getColor(bgColor);
-                String bgColorStr = convertToStardColor(hc);
-                if (bgColorStr != null && !"".equals(bgColorStr.trim())) {
-                    sb.append("background-color:" + bgColorStr + ";"); // 背景颜色
-                }
-                BorderStyle borderStyle = cellStyle.getBorderBottom();
-                sb.append( getBorderStyle(palette,0,borderStyle.getCode(),cellStyle.getTopBorderColor()));
-                sb.append( getBorderStyle(palette,1,borderStyle.getCode(),cellStyle.getRightBorderColor()));
-                sb.append( getBorderStyle(palette,3,borderStyle.getCode(),cellStyle.getLeftBorderColor()));
-                sb.append( getBorderStyle(palette,2,borderStyle.getCode(),cellStyle.getBottomBorderColor()));
-            }
+            appendStyleAttributes(sb, styleSheet.getStyleClass(cellStyle.getIndex() & 0xffff, overlay));
+        }
+    }
 
-            sb.append("' ");
+    static void appendStyleAttributes(StringBuffer sb, String styleClass) {
+        if (styleClass != null) {
+            sb.append("class='" + styleClass + "' ");
         }
     }
 
+    /**
+     * @param sb
+     * @param styleClass
+     * @param columnWidth 列的像素宽度
+     */
+    static void appendStyleAttributes(StringBuffer sb, String styleClass, int columnWidth) {
+        appendStyleAttributes(sb, styleClass);
+        sb.append("style='width:" + columnWidth + "px;' ");
+    }
+
     /**
      * 单元格内容的水平对齐方式
      * @param alignment
@@ -416,7 +1095,7 @@ public class ExcelToHtml {
 
         String valign = "middle";
         if(verticalAlignment == VerticalAlignment.BOTTOM.getCode()){valign = "bottom";}
-        else if(verticalAlignment == VerticalAlignment.CENTER.getCode()){valign = "center";}
+        else if(verticalAlignment == VerticalAlignment.CENTER.getCode()){valign = "middle";}
         else if(verticalAlignment == VerticalAlignment.TOP.getCode()){valign = "top";}
         return valign;
     }
@@ -444,13 +1123,19 @@ public class ExcelToHtml {
         return str;
     }
 
-    static String[] bordesr={"border-top:","border-right:","border-bottom:","border-left:"};
-    static String[] borderStyles={"solid ","solid ","solid ","solid ","solid ","solid ","solid ","solid ","solid ","solid","solid","solid","solid","solid"};
+    private static final String[] bordesr={"border-top:","border-right:","border-bottom:","border-left:"};
+    private static final String[] borderStyles={"solid ","solid ","solid ","solid ","solid ","solid ","solid ","solid ","solid ","solid","solid","solid","solid","solid"};
 
     static String getBorderStyle(HSSFPalette palette , int b, short s, short t){
 
         if(s==0)return  bordesr[b]+borderStyles[s]+"#d0d7e5 1px;";
-        String borderColorStr = convertToStardColor( palette.getColor(t));
+        return getBorderStyle(b, s, convertToStardColor( palette.getColor(t)));
+
+    }
+
+    static String getBorderStyle(int b, short s, String borderColorStr){
+
+        if(s==0)return  bordesr[b]+borderStyles[s]+"#d0d7e5 1px;";
         borderColorStr=borderColorStr==null|| borderColorStr.length()<1?"#000000":borderColorStr;
         return bordesr[b]+borderStyles[s]+borderColorStr+" 1px;";
 
@@ -478,31 +1163,6 @@ public class ExcelToHtml {
         throw new IllegalArgumentException(msg);
     }
 
-    // 获取某个cell所有的条件格式规则
-    private static List<EvaluationConditionalFormatRule> getMatchingConditionalFormattingForCell(Cell cell){
-        List<EvaluationConditionalFormatRule> rules = new ArrayList<>();
-
-        // Workbook各种评估器的提供者
-        WorkbookEvaluatorProvider workbookEvaluatorProvider =
-                (WorkbookEvaluatorProvider)workbook.getCreationHelper().createFormulaEvaluator();
-
-        // 条件格式评估器初始化
-        ConditionalFormattingEvaluator conditionalFormattingEvaluator =
-                new ConditionalFormattingEvaluator(workbook,workbookEvaluatorProvider);
-
-        // 获取cell的 规则评估器
-        List<EvaluationConditionalFormatRule> allCFRulesForCell = conditionalFormattingEvaluator.getConditionalFormattingForCell(cell);
-
-        for (EvaluationConditionalFormatRule evalCFRule :allCFRulesForCell) {
-            // 获取某个规则涵盖的所有cell matchingCells
-            List<Cell> matchingCells = conditionalFormattingEvaluator.getMatchingCells(evalCFRule);
-            // 如果 matchingCells 涵盖当前的cell，表示当前的cell含有此条规则，添加
-            if (matchingCells.contains(cell)) rules.add(evalCFRule);
-        }
-
-        return rules;
-    }
-
     public static void main(String[] args) {
         try {
             if (args == null || args.length == 0) {
@@ -0,0 +1,330 @@
+package html;
+
+import java.io.File;
+import java.util.function.Consumer;
+
+/**
+ * Excel转换为html的选项
+ *
+ * 对象不可变，可以在多个线程的多次转换之间共享。
+ * 修改选项时使用with开头的方法，返回一个新的选项对象。
+ */
+public final class ExcelToHtmlOptions {
+    private static final ExcelToHtmlOptions DEFAULTS = new ExcelToHtmlOptions(new Builder());
+
+    private final boolean withStyle;
+
+    private final String resourceDomain;
+
+    private final int chunkRows;
+
+    private final boolean parallelSheets;
+
+    private final boolean cachedFormulaResults;
+
+    private final boolean sparse;
+
+    private final boolean incremental;
+
+    private final File assetDirectory;
+
+    private final String assetUrlPrefix;
+
+    private final long streamingThreshold;
+
+    private final long maxCells;
+
+    private final double minInflateRatio;
+
+    private final long maxOutputBytes;
+
+    private ExcelToHtmlOptions(Builder builder) {
+        this.withStyle = builder.withStyle;
+        this.resourceDomain = builder.resourceDomain;
+        this.chunkRows = builder.chunkRows;
+        this.parallelSheets = builder.parallelSheets;
+        this.cachedFormulaResults = builder.cachedFormulaResults;
+        this.sparse = builder.sparse;
+        this.incremental = builder.incremental;
+        this.assetDirectory = builder.assetDirectory;
+        this.assetUrlPrefix = builder.assetUrlPrefix;
+        this.streamingThreshold = builder.streamingThreshold;
+        this.maxCells = builder.maxCells;
+        this.minInflateRatio = builder.minInflateRatio;
+        this.maxOutputBytes = builder.maxOutputBytes;
+    }
+
+    /**
+     * 复制当前选项并修改其中的一部分
+     * @param change 修改复制出的选项
+     * @return 新的选项对象
+     */
+    private ExcelToHtmlOptions with(Consumer<Builder> change) {
+        Builder builder = new Builder(this);
+        change.accept(builder);
+        return new ExcelToHtmlOptions(builder);
+    }
+
+    /**
+     * 默认选项：输出单元格样式，js和css的地址前缀取系统属性BASF-DOMAIN，公式使用文件中保存的计算结果，
+     * 跳过空行和隐藏的行列，估计超过20万个单元格的文件使用流式转换
+     * @return
+     */
+    public static ExcelToHtmlOptions defaults() {
+        return DEFAULTS;
+    }
+
+    public boolean isWithStyle() {
+        return withStyle;
+    }
+
+    /**
+     * @param withStyle 是否输出单元格样式
+     * @return
+     */
+    public ExcelToHtmlOptions withStyle(boolean withStyle) {
+        return with(b -> b.withStyle = withStyle);
+    }
+
+    /**
+     * html中引用js和css的地址前缀，没有设置时取系统属性BASF-DOMAIN
+     * @return
+     */
+    public String getResourceDomain() {
+        if (resourceDomain != null) {
+            return resourceDomain;
+        }
+        String domain = System.getProperty("BASF-DOMAIN");
+        return domain == null ? "" : domain;
+    }
+
+    /**
+     * @param resourceDomain html中引用js和css的地址前缀
+     * @return
+     */
+    public ExcelToHtmlOptions withResourceDomain(String resourceDomain) {
+        return with(b -> b.resourceDomain = resourceDomain);
+    }
+
+    public int getChunkRows() {
+        return chunkRows;
+    }
+
+    /**
+     * 按行分块输出，每个sheet只有第一块写在主html中，其余的块在浏览器滚动时加载
+     * @param chunkRows 每块的行数，0表示不分块
+     * @return
+     */
+    public ExcelToHtmlOptions withChunkRows(int chunkRows) {
+        if (chunkRows < 0) {
+            throw new IllegalArgumentException("chunkRows不能小于0: " + chunkRows);
+        }
+        return with(b -> b.chunkRows = chunkRows);
+    }
+
+    public boolean isParallelSheets() {
+        return parallelSheets;
+    }
+
+    /**
+     * 多个sheet在ForkJoinPool中并行渲染，按sheet顺序拼接输出
+     * @param parallelSheets 是否并行渲染sheet
+     * @return
+     */
+    public ExcelToHtmlOptions withParallelSheets(boolean parallelSheets) {
+        return with(b -> b.parallelSheets = parallelSheets);
+    }
+
+    public boolean isCachedFormulaResults() {
+        return cachedFormulaResults;
+    }
+
+    /**
+     * 公式单元格使用文件中保存的计算结果，只有没有保存结果或workbook要求重新计算时才计算公式
+     * @param cachedFormulaResults 为false时每个公式都重新计算
+     * @return
+     */
+    public ExcelToHtmlOptions withCachedFormulaResults(boolean cachedFormulaResults) {
+        return with(b -> b.cachedFormulaResults = cachedFormulaResults);
+    }
+
+    public boolean isSparse() {
+        return sparse;
+    }
+
+    /**
+     * 只输出有内容、有可见格式或属于合并区域的行，连续的空行和隐藏行合并为一个占位行，
+     * 隐藏的列和每行末尾的空单元格不输出
+     * @param sparse 为false时输出从第一行到最后一行的所有行
+     * @return
+     */
+    public ExcelToHtmlOptions withSparse(boolean sparse) {
+        return with(b -> b.sparse = sparse);
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * 按sheet增量转换，每个sheet的html片段按sheet的指纹保存，
+     * 重新转换时只生成内容发生变化的sheet，只对保存为文件的转换有效
+     * @param incremental 是否按sheet增量转换
+     * @return
+     */
+    public ExcelToHtmlOptions withIncremental(boolean incremental) {
+        return with(b -> b.incremental = incremental);
+    }
+
+    public File getAssetDirectory() {
+        return assetDirectory;
+    }
+
+    public String getAssetUrlPrefix() {
+        return assetUrlPrefix;
+    }
+
+    /**
+     * sheet中的图片按内容的SHA-256命名保存在一个目录中，多个sheet和多个文件中相同的图片只保存一次。
+     * 没有设置时图片以data URI内嵌在html中，保存为文件的转换默认使用输出目录下的assets目录
+     * @param assetDirectory 保存图片的目录
+     * @param assetUrlPrefix html中引用图片的地址前缀
+     * @return
+     */
+    public ExcelToHtmlOptions withAssetDirectory(File assetDirectory, String assetUrlPrefix) {
+        if (assetDirectory != null && assetUrlPrefix == null) {
+            throw new IllegalArgumentException("assetUrlPrefix不能为null");
+        }
+        return with(b -> {
+            b.assetDirectory = assetDirectory;
+            b.assetUrlPrefix = assetUrlPrefix;
+        });
+    }
+
+    public long getStreamingThreshold() {
+        return streamingThreshold;
+    }
+
+    /**
+     * 转换文件之前先估计单元格数，超过这个值时不创建workbook，改用流式转换，
+     * 内存占用不再随文件增大，但不输出条件格式、图片，不分块，公式使用保存的结果
+     * @param streamingThreshold 估计的单元格数，0表示总是创建workbook
+     * @return
+     */
+    public ExcelToHtmlOptions withStreamingThreshold(long streamingThreshold) {
+        if (streamingThreshold < 0) {
+            throw new IllegalArgumentException("streamingThreshold不能小于0: " + streamingThreshold);
+        }
+        return with(b -> b.streamingThreshold = streamingThreshold);
+    }
+
+    public long getMaxCells() {
+        return maxCells;
+    }
+
+    /**
+     * 估计的单元格数超过这个值时拒绝转换，流式转换时还按实际读到的单元格数检查
+     * @param maxCells 最多的单元格数，0表示不限制
+     * @return
+     */
+    public ExcelToHtmlOptions withMaxCells(long maxCells) {
+        if (maxCells < 0) {
+            throw new IllegalArgumentException("maxCells不能小于0: " + maxCells);
+        }
+        return with(b -> b.maxCells = maxCells);
+    }
+
+    public double getMinInflateRatio() {
+        return minInflateRatio;
+    }
+
+    /**
+     * xlsx中每个文件压缩后与解压后大小之比的下限，低于这个值的文件视为压缩炸弹，拒绝转换。
+     * 转换前按压缩包的目录检查，解压时仍由ZipSecureFile按它的全局设置检查实际的数据
+     * @param minInflateRatio 0到1之间，默认与ZipSecureFile相同为0.01，0表示不检查
+     * @return
+     */
+    public ExcelToHtmlOptions withMinInflateRatio(double minInflateRatio) {
+        if (!(minInflateRatio >= 0 && minInflateRatio <= 1)) {
+            throw new IllegalArgumentException("minInflateRatio应在0到1之间: " + minInflateRatio);
+        }
+        return with(b -> b.minInflateRatio = minInflateRatio);
+    }
+
+    public long getMaxOutputBytes() {
+        return maxOutputBytes;
+    }
+
+    /**
+     * 保存为文件的转换最多输出的字节数，包括主html和所有的行块，超过时中止转换并删除生成的html
+     * @param maxOutputBytes 最多输出的字节数，0表示不限制
+     * @return
+     */
+    public ExcelToHtmlOptions withMaxOutputBytes(long maxOutputBytes) {
+        if (maxOutputBytes < 0) {
+            throw new IllegalArgumentException("maxOutputBytes不能小于0: " + maxOutputBytes);
+        }
+        return with(b -> b.maxOutputBytes = maxOutputBytes);
+    }
+
+    /**
+     * 影响输出内容的选项，作为转换结果缓存键的一部分
+     * @return
+     */
+    String cacheKey() {
+        return "style=" + withStyle + ";domain=" + getResourceDomain() + ";chunkRows=" + chunkRows
+                + ";cachedFormulaResults=" + cachedFormulaResults + ";sparse=" + sparse
+                + ";assets=" + (assetDirectory == null ? "" : assetUrlPrefix)
+                + ";streamingThreshold=" + streamingThreshold;
+    }
+
+    /**
+     * 创建选项时的可变副本，没有复制来源时为默认选项
+     */
+    private static final class Builder {
+        private boolean withStyle = true;
+
+        private String resourceDomain;
+
+        private int chunkRows;
+
+        private boolean parallelSheets;
+
+        private boolean cachedFormulaResults = true;
+
+        private boolean sparse = true;
+
+        private boolean incremental;
+
+        private File assetDirectory;
+
+        private String assetUrlPrefix;
+
+        private long streamingThreshold = 200000;
+
+        private long maxCells;
+
+        private double minInflateRatio = 0.01;
+
+        private long maxOutputBytes;
+
+        Builder() {
+        }
+
+        Builder(ExcelToHtmlOptions options) {
+            this.withStyle = options.withStyle;
+            this.resourceDomain = options.resourceDomain;
+            this.chunkRows = options.chunkRows;
+            this.parallelSheets = options.parallelSheets;
+            this.cachedFormulaResults = options.cachedFormulaResults;
+            this.sparse = options.sparse;
+            this.incremental = options.incremental;
+            this.assetDirectory = options.assetDirectory;
+            this.assetUrlPrefix = options.assetUrlPrefix;
+            this.streamingThreshold = options.streamingThreshold;
+            this.maxCells = options.maxCells;
+            this.minInflateRatio = options.minInflateRatio;
+            this.maxOutputBytes = options.maxOutputBytes;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package html;
+
+import org.apache.poi.hssf.usermodel.HSSFEvaluationWorkbook;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.EvaluationCell;
+import org.apache.poi.ss.formula.FormulaParseException;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaParsingWorkbook;
+import org.apache.poi.ss.formula.FormulaRenderingWorkbook;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.atp.AnalysisToolPak;
+import org.apache.poi.ss.formula.eval.FunctionEval;
+import org.apache.poi.ss.formula.ptg.*;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * 公式的预先分析
+ *
+ * 每个不同的公式只解析一次，检查用到的函数是否都能由POI计算、是否引用了外部workbook，
+ * 结果按公式缓存。同一列中拖动复制的公式只有单元格引用不同，
+ * 缓存键中的单元格引用统一替换掉，整列公式只分析一次。
+ * xls直接使用文件中已经解析好的Ptg作为缓存键并进行分析，不需要把公式转换为文本再解析；
+ * xlsx的共享公式只能通过不在依赖中的ooxml-schemas取得分组，仍按公式文本计算缓存键。
+ * 渲染时不能计算的公式直接使用保存的结果或IFERROR的默认值，不再逐个单元格抛出异常。
+ */
+final class FormulaPlans {
+    /** 单元格引用，例如A1、$B$12，不包括LOG10(这样的函数名 */
+    private static final Pattern CELL_REFERENCE = Pattern.compile("\\b\\$?[A-Za-z]{1,3}\\$?[0-9]+\\b(?!\\()");
+
+    private static final Set<String> SUPPORTED_FUNCTIONS;
+
+    static {
+        Set<String> names = new HashSet<>(FunctionEval.getSupportedFunctionNames());
+        names.addAll(AnalysisToolPak.getSupportedFunctionNames());
+        SUPPORTED_FUNCTIONS = Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * 公式单元格的取值方式
+     */
+    enum Plan {
+        /** 由POI计算 */
+        EVALUATE,
+        /** 不能计算，使用文件中保存的结果 */
+        CACHED,
+        /** 不能计算也没有保存结果，使用IFERROR的默认值 */
+        FALLBACK
+    }
+
+    private final Workbook workbook;
+
+    private final FormulaParsingWorkbook parsingWorkbook;
+
+    /** 键为替换了单元格引用的公式或Ptg，值为是否可以计算 */
+    private final Map<String, Boolean> evaluable = new HashMap<>();
+
+    FormulaPlans(Workbook workbook) {
+        this.workbook = workbook;
+        if (workbook instanceof HSSFWorkbook) {
+            parsingWorkbook = HSSFEvaluationWorkbook.create((HSSFWorkbook) workbook);
+        } else if (workbook instanceof XSSFWorkbook) {
+            parsingWorkbook = XSSFEvaluationWorkbook.create((XSSFWorkbook) workbook);
+        } else {
+            parsingWorkbook = null;
+        }
+    }
+
+    /**
+     * 获取公式单元格的取值方式
+     * @param cell 公式单元格
+     * @param hasCachedResult 单元格是否保存了计算结果
+     * @return
+     */
+    Plan get(Cell cell, boolean hasCachedResult) {
+        Boolean canEvaluate;
+        Ptg[] tokens = getTokens(cell);
+        if (tokens != null) {
+            String key = key(tokens);
+            canEvaluate = evaluable.get(key);
+            if (canEvaluate == null) {
+                canEvaluate = analyze(tokens);
+                evaluable.put(key, canEvaluate);
+            }
+        } else {
+            String formula = cell.getCellFormula();
+            String key = key(formula);
+            canEvaluate = evaluable.get(key);
+            if (canEvaluate == null) {
+                canEvaluate = analyze(cell, formula);
+                evaluable.put(key, canEvaluate);
+            }
+        }
+        if (canEvaluate) {
+            return Plan.EVALUATE;
+        }
+        return hasCachedResult ? Plan.CACHED : Plan.FALLBACK;
+    }
+
+    /**
+     * 计算时仍然失败的公式，同样的公式以后不再计算
+     * @param cell
+     */
+    void markNotEvaluable(Cell cell) {
+        Ptg[] tokens = getTokens(cell);
+        evaluable.put(tokens != null ? key(tokens) : key(cell.getCellFormula()), Boolean.FALSE);
+    }
+
+    /**
+     * xls公式单元格在文件中保存的Ptg，共享公式已经换算为这个单元格的引用
+     * @param cell
+     * @return xlsx返回null
+     */
+    private Ptg[] getTokens(Cell cell) {
+        if (!(parsingWorkbook instanceof HSSFEvaluationWorkbook)) {
+            return null;
+        }
+        HSSFEvaluationWorkbook hssf = (HSSFEvaluationWorkbook) parsingWorkbook;
+        EvaluationCell evaluationCell = hssf.getSheet(workbook.getSheetIndex(cell.getSheet()))
+                .getCell(cell.getRowIndex(), cell.getColumnIndex());
+        return hssf.getFormulaTokens(evaluationCell);
+    }
+
+    private static String key(String formula) {
+        return CELL_REFERENCE.matcher(formula).replaceAll("#");
+    }
+
+    /**
+     * 与文本公式一样替换掉单元格引用，其它sheet的引用保留sheet的编号
+     * @param tokens
+     * @return
+     */
+    private static String key(Ptg[] tokens) {
+        StringBuilder key = new StringBuilder();
+        for (Ptg ptg : tokens) {
+            if (ptg instanceof Ref3DPtg) {
+                key.append("#!").append(((Ref3DPtg) ptg).getExternSheetIndex());
+            } else if (ptg instanceof Area3DPtg) {
+                key.append("#!").append(((Area3DPtg) ptg).getExternSheetIndex());
+            } else if (ptg instanceof RefPtgBase || ptg instanceof AreaPtgBase) {
+                key.append('#');
+            } else if (ptg instanceof ScalarConstantPtg) {
+                key.append(ptg.toFormulaString());
+            } else if (ptg instanceof AbstractFunctionPtg) {
+                key.append("F").append(((AbstractFunctionPtg) ptg).getFunctionIndex());
+            } else if (ptg instanceof NamePtg) {
+                key.append("N").append(((NamePtg) ptg).getIndex());
+            } else if (ptg instanceof NameXPtg) {
+                key.append("X").append(((NameXPtg) ptg).getSheetRefIndex())
+                        .append('.').append(((NameXPtg) ptg).getNameIndex());
+            } else {
+                key.append(ptg.getClass().getSimpleName());
+            }
+            key.append(' ');
+        }
+        return key.toString();
+    }
+
+    private boolean analyze(Cell cell, String formula) {
+        if (parsingWorkbook == null) {
+            return true;
+        }
+        Ptg[] ptgs;
+        try {
+            int sheetIndex = workbook.getSheetIndex(cell.getSheet());
+            ptgs = FormulaParser.parse(formula, parsingWorkbook, FormulaType.CELL, sheetIndex, cell.getRowIndex());
+        } catch (FormulaParseException e) {
+            return false;
+        }
+        return analyze(ptgs);
+    }
+
+    private boolean analyze(Ptg[] ptgs) {
+        // 外部函数（分析工具库或自定义函数）的名称是单独的名称引用，分析工具库的函数引用外部名称，
+        // 自定义函数引用workbook中定义的名称，外部函数多于外部名称时说明用到了自定义函数
+        int externalFunctions = 0;
+        int externalNames = 0;
+        for (Ptg ptg : ptgs) {
+            if (ptg instanceof Pxg && ((Pxg) ptg).getExternalWorkbookNumber() > 0) {
+                // 引用其他workbook
+                return false;
+            }
+            String name;
+            if (ptg instanceof AbstractFunctionPtg) {
+                AbstractFunctionPtg function = (AbstractFunctionPtg) ptg;
+                if (function.isExternalFunction()) {
+                    externalFunctions++;
+                    continue;
+                }
+                name = function.getName();
+            } else if (ptg instanceof NameXPxg) {
+                externalNames++;
+                name = stripPrefix(((NameXPxg) ptg).getNameName());
+            } else if (ptg instanceof NameXPtg && parsingWorkbook instanceof FormulaRenderingWorkbook) {
+                externalNames++;
+                name = stripPrefix(((FormulaRenderingWorkbook) parsingWorkbook).resolveNameXText((NameXPtg) ptg));
+            } else {
+                continue;
+            }
+            if (name == null || !SUPPORTED_FUNCTIONS.contains(name.toUpperCase(Locale.ROOT))) {
+                return false;
+            }
+        }
+        return externalFunctions <= externalNames;
+    }
+
+    /** 新版本函数在文件中带有_xlfn.前缀 */
+    private static String stripPrefix(String name) {
+        return name != null && name.startsWith("_xlfn.") ? name.substring(6) : name;
+    }
+}
@@ -0,0 +1,384 @@
+package html;
+
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.record.*;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.util.HSSFColor;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * 使用HSSF事件模型逐条读取xls文件的记录
+ *
+ * 第一遍只读取workbook的全局记录（sheet名称、字体、单元格格式、调色板）
+ * 以及每个sheet的列宽和合并区域，合并区域记录位于sheet的末尾；
+ * 第二遍读取单元格记录，通过{@link SheetEventListener}交给调用者处理。
+ * 内存中只保留共享字符串表和这些全局记录。
+ */
+public class HSSFEventReader {
+    /**
+     * FormulaRecord中缓存结果为数字时的类型，CellType.getCode已经过时
+     */
+    private static final int CACHED_RESULT_NUMERIC = 0;
+
+    private final POIFSFileSystem fs;
+
+    private final List<String> sheetNames = new ArrayList<>();
+
+    private final List<List<CellRangeAddress>> mergedRegions = new ArrayList<>();
+
+    private final List<ColumnWidths> columnWidths = new ArrayList<>();
+
+    private final List<ExtendedFormatRecord> extendedFormats = new ArrayList<>();
+
+    private final List<FontRecord> fonts = new ArrayList<>();
+
+    private PaletteRecord palette = new PaletteRecord();
+
+    private boolean date1904;
+
+    public HSSFEventReader(POIFSFileSystem fs) throws IOException {
+        this.fs = fs;
+        GlobalsListener globals = new GlobalsListener();
+        process(globals);
+        for (BoundSheetRecord boundSheet : BoundSheetRecord.orderByBofPosition(globals.boundSheets)) {
+            sheetNames.add(boundSheet.getSheetname());
+        }
+        for (int i = 0; i < mergedRegions.size(); i++) {
+            mergedRegions.set(i, MergedRegionGrid.clamp(mergedRegions.get(i), globals.lastRows.get(i)));
+        }
+    }
+
+    public List<String> getSheetNames() {
+        return Collections.unmodifiableList(sheetNames);
+    }
+
+    public boolean isDate1904() {
+        return date1904;
+    }
+
+    /**
+     * 按顺序读取所有sheet
+     * @param listener
+     * @throws IOException
+     */
+    public void read(SheetEventListener listener) throws IOException {
+        CellsListener cells = new CellsListener(listener);
+        cells.formats = new FormatTrackingHSSFListener(cells);
+        process(cells.formats);
+    }
+
+    private void process(HSSFListener listener) throws IOException {
+        HSSFRequest request = new HSSFRequest();
+        request.addListenerForAllRecords(listener);
+        try {
+            new HSSFEventFactory().processWorkbookEvents(request, fs);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 按单元格格式(XF)的索引生成css，与{@link HtmlStyleSheet#toCss}对HSSF样式的处理一致
+     * @param xfIndex
+     * @return
+     */
+    String toCss(int xfIndex) {
+        StringBuilder sb = new StringBuilder();
+        if (xfIndex >= extendedFormats.size()) {
+            return sb.toString();
+        }
+        ExtendedFormatRecord xf = extendedFormats.get(xfIndex);
+        sb.append("text-align:").append(ExcelToHtml.convertAlignToHtml(xf.getAlignment())).append(';');
+        sb.append("vertical-align:").append(ExcelToHtml.convertVerticalAlignToHtml(xf.getVerticalAlignment())).append(';');
+        // 字体索引4不存在，之后的索引需要减一
+        int fontIndex = xf.getFontIndex() > 4 ? xf.getFontIndex() - 1 : xf.getFontIndex();
+        if (fontIndex < fonts.size()) {
+            FontRecord font = fonts.get(fontIndex);
+            if (font.getBoldWeight() == 0x2bc)
+                sb.append("font-weight:bold;"); // 字体加粗
+            sb.append("font-size:").append(font.getFontHeight() / 2).append("%;"); // 字体大小
+            String fontColorStr = paletteColor(font.getColorPaletteIndex());
+            if (fontColorStr != null && !"".equals(fontColorStr.trim())) {
+                sb.append("color:").append(fontColorStr).append(';'); // 字体颜色
+            }
+        }
+        String bgColorStr = paletteColor(xf.getFillForeground());
+        if (bgColorStr != null && !"".equals(bgColorStr.trim())) {
+            sb.append("background-color:").append(bgColorStr).append(';'); // 背景颜色
+        }
+        short border = xf.getBorderBottom();
+        sb.append(ExcelToHtml.getBorderStyle(0, border, paletteColor(xf.getTopBorderPaletteIdx())));
+        sb.append(ExcelToHtml.getBorderStyle(1, border, paletteColor(xf.getRightBorderPaletteIdx())));
+        sb.append(ExcelToHtml.getBorderStyle(3, border, paletteColor(xf.getLeftBorderPaletteIdx())));
+        sb.append(ExcelToHtml.getBorderStyle(2, border, paletteColor(xf.getBottomBorderPaletteIdx())));
+        return sb.toString();
+    }
+
+    /**
+     * 调色板中的颜色，与{@link ExcelToHtml#convertToStardColor}的结果相同
+     */
+    private String paletteColor(short index) {
+        if (index == HSSFColor.HSSFColorPredefined.AUTOMATIC.getIndex()) {
+            return null;
+        }
+        byte[] rgb = palette.getColor(index);
+        if (rgb == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder("#");
+        for (byte b : rgb) {
+            sb.append(ExcelToHtml.fillWithZero(Integer.toHexString(b & 0xff)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 第一遍读取，收集全局记录以及每个sheet的列宽和合并区域
+     */
+    private class GlobalsListener implements HSSFListener {
+        private final List<BoundSheetRecord> boundSheets = new ArrayList<>();
+
+        /** BOF的嵌套深度，sheet中嵌入的图表有自己的BOF和EOF */
+        private int depth;
+
+        private List<CellRangeAddress> sheetMergedRegions;
+
+        /** 每个sheet最后一行的行号，没有任何行时为-1 */
+        private final List<Integer> lastRows = new ArrayList<>();
+
+        private ColumnWidths sheetColumnWidths;
+
+        @Override
+        public void processRecord(Record record) {
+            switch (record.getSid()) {
+                case BOFRecord.sid:
+                    depth++;
+                    if (depth == 1 && ((BOFRecord) record).getType() != BOFRecord.TYPE_WORKBOOK) {
+                        sheetMergedRegions = new ArrayList<>();
+                        sheetColumnWidths = new ColumnWidths();
+                        mergedRegions.add(sheetMergedRegions);
+                        columnWidths.add(sheetColumnWidths);
+                        lastRows.add(-1);
+                    }
+                    break;
+                case EOFRecord.sid:
+                    depth--;
+                    break;
+                case BoundSheetRecord.sid:
+                    boundSheets.add((BoundSheetRecord) record);
+                    break;
+                case ExtendedFormatRecord.sid:
+                    extendedFormats.add((ExtendedFormatRecord) record);
+                    break;
+                case FontRecord.sid:
+                    fonts.add((FontRecord) record);
+                    break;
+                case PaletteRecord.sid:
+                    palette = (PaletteRecord) record;
+                    break;
+                case DateWindow1904Record.sid:
+                    date1904 = ((DateWindow1904Record) record).getWindowing() == 1;
+                    break;
+                case DefaultColWidthRecord.sid:
+                    if (depth == 1 && sheetColumnWidths != null) {
+                        sheetColumnWidths.setDefaultColumnWidth(((DefaultColWidthRecord) record).getColWidth() * 256);
+                    }
+                    break;
+                case ColumnInfoRecord.sid:
+                    if (depth == 1 && sheetColumnWidths != null) {
+                        ColumnInfoRecord columnInfo = (ColumnInfoRecord) record;
+                        sheetColumnWidths.setColumnWidth(columnInfo.getFirstColumn(),
+                                columnInfo.getLastColumn(), columnInfo.getColumnWidth());
+                    }
+                    break;
+                case RowRecord.sid:
+                    if (depth == 1 && sheetMergedRegions != null) {
+                        int last = lastRows.size() - 1;
+                        lastRows.set(last, Math.max(lastRows.get(last), ((RowRecord) record).getRowNumber()));
+                    }
+                    break;
+                case MergeCellsRecord.sid:
+                    if (depth == 1 && sheetMergedRegions != null) {
+                        MergeCellsRecord mergeCells = (MergeCellsRecord) record;
+                        for (int i = 0; i < mergeCells.getNumAreas(); i++) {
+                            sheetMergedRegions.add(mergeCells.getAreaAt(i));
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 第二遍读取，按顺序输出行和单元格
+     */
+    private class CellsListener implements HSSFListener {
+        private final SheetEventListener listener;
+
+        private FormatTrackingHSSFListener formats;
+
+        private SSTRecord sst;
+
+        private int depth;
+
+        private int sheetIndex = -1;
+
+        /** 当前sheet中已经读到但还没有输出的行，RowRecord在单元格之前成块出现 */
+        private final TreeSet<Integer> pendingRows = new TreeSet<>();
+
+        private int currentRow = -1;
+
+        /** 字符串结果的公式，值在随后的StringRecord中 */
+        private FormulaRecord stringFormula;
+
+        private final CellNumberFormatter numberFormatter = new CellNumberFormatter(date1904);
+
+        CellsListener(SheetEventListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void processRecord(Record record) {
+            try {
+                process(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void process(Record record) throws IOException {
+            if (stringFormula != null && !isFormulaTrailer(record.getSid())) {
+                // 结果为空字符串的公式后面没有StringRecord
+                FormulaRecord formula = stringFormula;
+                stringFormula = null;
+                cell(formula, "");
+            }
+            switch (record.getSid()) {
+                case BOFRecord.sid:
+                    depth++;
+                    if (depth == 1 && ((BOFRecord) record).getType() != BOFRecord.TYPE_WORKBOOK) {
+                        sheetIndex++;
+                        currentRow = -1;
+                        pendingRows.clear();
+                        listener.startSheet(sheetIndex, sheetNames.get(sheetIndex),
+                                mergedRegions.get(sheetIndex), columnWidths.get(sheetIndex));
+                    }
+                    return;
+                case EOFRecord.sid:
+                    depth--;
+                    if (depth == 0 && sheetIndex >= 0) {
+                        moveToRow(Integer.MAX_VALUE);
+                        listener.endSheet(sheetIndex);
+                    }
+                    return;
+                case SSTRecord.sid:
+                    sst = (SSTRecord) record;
+                    return;
+                case RowRecord.sid:
+                    if (depth == 1 && sheetIndex >= 0) {
+                        pendingRows.add(((RowRecord) record).getRowNumber());
+                    }
+                    return;
+                case StringRecord.sid:
+                    if (stringFormula != null) {
+                        cell(stringFormula, ((StringRecord) record).getString());
+                        stringFormula = null;
+                    }
+                    return;
+                case MulBlankRecord.sid:
+                    if (depth == 1 && sheetIndex >= 0) {
+                        MulBlankRecord blanks = (MulBlankRecord) record;
+                        moveToRow(blanks.getRow());
+                        for (int col = blanks.getFirstColumn(); col <= blanks.getLastColumn(); col++) {
+                            listener.cell(blanks.getRow(), col, "", blanks.getXFAt(col - blanks.getFirstColumn()));
+                        }
+                    }
+                    return;
+                default:
+                    break;
+            }
+            if (depth != 1 || sheetIndex < 0 || !(record instanceof CellValueRecordInterface)) {
+                return;
+            }
+            CellValueRecordInterface cell = (CellValueRecordInterface) record;
+            switch (record.getSid()) {
+                case LabelSSTRecord.sid:
+                    cell(cell, sst.getString(((LabelSSTRecord) record).getSSTIndex()).getString());
+                    break;
+                case LabelRecord.sid:
+                    cell(cell, ((LabelRecord) record).getValue());
+                    break;
+                case NumberRecord.sid:
+                    int formatIndex = formats.getFormatIndex(cell);
+                    cell(cell, numberFormatter.format(((NumberRecord) record).getValue(),
+                            formatIndex, formats.getFormatString(formatIndex)));
+                    break;
+                case FormulaRecord.sid:
+                    FormulaRecord formula = (FormulaRecord) record;
+                    if (formula.hasCachedResultString()) {
+                        stringFormula = formula;
+                    } else if (formula.getCachedResultType() == CACHED_RESULT_NUMERIC) {
+                        // 与数字单元格一样按数据格式输出
+                        formatIndex = formats.getFormatIndex(cell);
+                        cell(cell, numberFormatter.format(formula.getValue(),
+                                formatIndex, formats.getFormatString(formatIndex)));
+                    } else {
+                        cell(cell, "");
+                    }
+                    break;
+                default:
+                    // 空白单元格，布尔值和错误值与usermodel保持一致，不输出内容
+                    cell(cell, "");
+                    break;
+            }
+        }
+
+        /**
+         * 公式记录和它的StringRecord之间可能出现的记录
+         */
+        private static boolean isFormulaTrailer(short sid) {
+            return sid == StringRecord.sid || sid == SharedFormulaRecord.sid || sid == ArrayRecord.sid
+                    || sid == TableRecord.sid;
+        }
+
+        private void cell(CellValueRecordInterface cell, String value) throws IOException {
+            moveToRow(cell.getRow());
+            listener.cell(cell.getRow(), cell.getColumn(), value, cell.getXFIndex());
+        }
+
+        /**
+         * 结束当前行并输出row之前没有单元格的行，然后开始row
+         */
+        private void moveToRow(int row) throws IOException {
+            if (row == currentRow) {
+                return;
+            }
+            if (currentRow >= 0) {
+                listener.endRow(currentRow);
+            }
+            Integer next;
+            while ((next = pendingRows.pollFirst()) != null && next < row) {
+                listener.startRow(next);
+                listener.endRow(next);
+            }
+            if (next != null && next > row) {
+                pendingRows.add(next);
+            }
+            currentRow = row;
+            if (row != Integer.MAX_VALUE) {
+                listener.startRow(row);
+            }
+        }
+    }
+}
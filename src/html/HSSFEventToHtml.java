@@ -0,0 +1,74 @@
+package html;
+
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 大文件xls转换为html
+ *
+ * 不创建HSSFWorkbook，使用{@link HSSFEventReader}按记录读取单元格并逐行写出，
+ * 内存中只保留共享字符串表、样式相关的全局记录、合并区域和当前的一行。
+ * 输出与{@link ExcelToHtml}相同，但不处理条件格式，公式使用文件中保存的计算结果。
+ */
+public class HSSFEventToHtml {
+    /**
+     * xls转换为html
+     *
+     * @param sourcePath
+     *          xls文件路径
+     * @param savePath
+     *          存储路径
+     * @param saveName
+     *          存储名称
+     * @return 生成的html文件路径
+     */
+    public static String conversion(String sourcePath, String savePath, String saveName) throws IOException {
+        File source = new File(sourcePath);
+        File file = new File(savePath + File.separator + saveName + ".html");
+        // 源文件的内容没有变化时直接使用上次的结果
+        String key = ConversionCache.key(source, "xls-stream");
+        if(ConversionCache.isCurrent(file, key)){
+            return file.getPath();
+        }
+        // 删除旧的缓存键后再写临时文件并改名，结果文件不会只写了一半
+        ConversionCache.invalidate(file);
+        ConversionCache.writeAtomically(file, out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            convert(source, writer);
+            writer.flush();
+        });
+        ConversionCache.markCurrent(file, key);
+        return file.getPath();
+    }
+
+    /**
+     * xls转换为html，写入到writer中
+     *
+     * @param source xls文件
+     * @param writer 输出html的writer
+     * @throws IOException
+     */
+    public static void convert(File source, Writer writer) throws IOException {
+        convert(source, writer, ExcelToHtmlOptions.defaults());
+    }
+
+    /**
+     * xls转换为html，写入到writer中
+     *
+     * @param source xls文件
+     * @param writer 输出html的writer
+     * @param options 使用其中的资源地址前缀和单元格数限制，其余选项不适用于流式转换
+     * @throws IOException
+     */
+    public static void convert(File source, Writer writer, ExcelToHtmlOptions options) throws IOException {
+        try (POIFSFileSystem fs = new POIFSFileSystem(source, true)) {
+            HSSFEventReader reader = new HSSFEventReader(fs);
+            StreamingHtmlWriter html = new StreamingHtmlWriter(writer, new HtmlStyleSheet(reader::toCss), options);
+            html.startDocument(reader.getSheetNames());
+            reader.read(html);
+            html.endDocument();
+        }
+    }
+}
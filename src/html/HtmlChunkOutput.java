@@ -0,0 +1,57 @@
+package html;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 分块输出时保存后续行块的位置
+ *
+ * 每个sheet的第一块直接写在主html中，之后的每块写成一个只包含tr的html片段，
+ * 前一块的末尾放置一个指向下一块地址的占位行，由js/common.js在滚动到附近时加载。
+ */
+public interface HtmlChunkOutput {
+    /**
+     * 打开一个行块的输出，写完后由调用者关闭
+     * @param sheetIndex sheet的编号
+     * @param chunkIndex 行块的编号，从1开始，0号块在主html中
+     * @return
+     * @throws IOException
+     */
+    Writer open(int sheetIndex, int chunkIndex) throws IOException;
+
+    /**
+     * 浏览器加载行块的地址
+     * @param sheetIndex sheet的编号
+     * @param chunkIndex 行块的编号
+     * @return
+     */
+    String url(int sheetIndex, int chunkIndex);
+
+    /**
+     * 把行块写到目录中，文件名为 sheet{sheet编号}_{行块编号}.html
+     * @param dir 行块文件的目录，不存在时创建
+     * @param urlPrefix 主html访问该目录的地址前缀，例如 name_files/
+     * @return
+     */
+    static HtmlChunkOutput directory(File dir, String urlPrefix) {
+        return new HtmlChunkOutput() {
+            @Override
+            public Writer open(int sheetIndex, int chunkIndex) throws IOException {
+                if (!dir.mkdirs() && !dir.isDirectory()) {
+                    throw new IOException("无法创建目录: " + dir.getPath());
+                }
+                File file = new File(dir, fileName(sheetIndex, chunkIndex));
+                return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public String url(int sheetIndex, int chunkIndex) {
+                return urlPrefix + fileName(sheetIndex, chunkIndex);
+            }
+
+            private String fileName(int sheetIndex, int chunkIndex) {
+                return "sheet" + sheetIndex + "_" + chunkIndex + ".html";
+            }
+        };
+    }
+}
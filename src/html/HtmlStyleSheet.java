@@ -0,0 +1,204 @@
+package html;
+
+import org.apache.poi.hssf.usermodel.HSSFCellStyle;
+import org.apache.poi.hssf.usermodel.HSSFFont;
+import org.apache.poi.hssf.usermodel.HSSFPalette;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.hssf.util.HSSFColor;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFColor;
+import org.apache.poi.xssf.usermodel.XSSFFont;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * 单元格样式到css class的转换
+ *
+ * 每个样式只生成一次css，按样式的索引命名为 s{index}，
+ * 单元格只输出class名称。新出现的class先放入待输出的规则中，
+ * 由渲染过程调用{@link #flush(StringBuffer)}写成一个style元素。
+ * 条件格式的填充色、数据条等不修改workbook，而是在原样式的css后追加覆盖的声明，
+ * 按(样式, 覆盖的声明)生成一个新的class，命名为 s{index}_{覆盖声明的摘要}。
+ * 并行渲染和增量转换时每个sheet使用各自的样式表，class名称只由内容决定，
+ * 不同sheet生成的同名class的css完全相同，合并到一个文档中也不会互相覆盖。
+ */
+final class HtmlStyleSheet {
+    static final String CLASS_PREFIX = "s";
+
+    /** 按样式索引生成css声明 */
+    private final IntFunction<String> cssResolver;
+
+    private String[] classes = new String[64];
+
+    /** 覆盖声明的摘要取前几位十六进制字符作为class名称的后缀 */
+    private static final int OVERLAY_HASH_LENGTH = 12;
+
+    /** 条件格式覆盖后的class，键为 样式索引|覆盖的声明 */
+    private final Map<String, String> overlays = new HashMap<>();
+
+    /** 已经生成的所有css规则，按生成的顺序 */
+    private final Map<String, String> rules = new LinkedHashMap<>();
+
+    private final StringBuilder pending = new StringBuilder();
+
+    /**
+     * 使用workbook中的单元格样式
+     *
+     * 并行渲染时各sheet的样式表共用一个workbook，HSSF读取字体时会填充workbook中没有同步的缓存，
+     * 生成css时锁定workbook
+     * @param workbook
+     */
+    HtmlStyleSheet(Workbook workbook) {
+        this(index -> {
+            synchronized (workbook) {
+                return toCss(workbook, workbook.getCellStyleAt(index));
+            }
+        });
+    }
+
+    /**
+     * 流式转换时没有workbook，由调用者按样式索引生成css
+     * @param cssResolver 没有对应样式时返回null，这样的单元格不使用class
+     */
+    HtmlStyleSheet(IntFunction<String> cssResolver) {
+        this.cssResolver = cssResolver;
+    }
+
+    String getStyleClass(CellStyle cellStyle) {
+        return getStyleClass(cellStyle.getIndex() & 0xffff);
+    }
+
+    /**
+     * 获取样式索引对应的class，第一次使用时生成css规则
+     * @param styleIndex
+     * @return 没有对应的样式时返回null
+     */
+    String getStyleClass(int styleIndex) {
+        if (styleIndex >= classes.length) {
+            classes = Arrays.copyOf(classes, Math.max(styleIndex + 1, classes.length * 2));
+        }
+        String className = classes[styleIndex];
+        if (className == null) {
+            String css = cssResolver.apply(styleIndex);
+            // 没有对应样式的索引记为空字符串，不再重复查找
+            className = css == null ? "" : CLASS_PREFIX + styleIndex;
+            classes[styleIndex] = className;
+            if (css != null) {
+                addRule(className, css);
+            }
+        }
+        return className.isEmpty() ? null : className;
+    }
+
+    /**
+     * 获取条件格式覆盖之后的class
+     * @param styleIndex 单元格原来的样式索引
+     * @param overlay 条件格式的css声明，为null时与{@link #getStyleClass(int)}相同
+     * @return
+     */
+    String getStyleClass(int styleIndex, String overlay) {
+        if (overlay == null) {
+            return getStyleClass(styleIndex);
+        }
+        String key = styleIndex + "|" + overlay;
+        String className = overlays.get(key);
+        if (className == null) {
+            className = CLASS_PREFIX + styleIndex + "_"
+                    + ConversionCache.sha256Hex(key).substring(0, OVERLAY_HASH_LENGTH);
+            overlays.put(key, className);
+            // 后面的声明覆盖原样式中的同名属性
+            String css = cssResolver.apply(styleIndex);
+            addRule(className, css == null ? overlay : css + overlay);
+        }
+        return className;
+    }
+
+    private void addRule(String className, String css) {
+        rules.put(className, css);
+        pending.append("td.").append(className).append('{').append(css).append('}');
+    }
+
+    /**
+     * 已经生成的所有class和对应的css声明
+     * @return
+     */
+    Map<String, String> getRules() {
+        return Collections.unmodifiableMap(rules);
+    }
+
+    /**
+     * 把还未输出的css规则写成一个style元素
+     * @param sb
+     */
+    void flush(StringBuffer sb) {
+        if (pending.length() > 0) {
+            sb.append("<style>").append(pending).append("</style>");
+            pending.setLength(0);
+        }
+    }
+
+    /**
+     * 生成单元格样式的css声明
+     * @param wb 样式所属的workbook，XSSF样式可以为null
+     * @param cellStyle
+     * @return
+     */
+    static String toCss(Workbook wb, CellStyle cellStyle) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("text-align:")
+                .append(ExcelToHtml.convertAlignToHtml(cellStyle.getAlignment().getCode())).append(';');//单元格内容的水平对齐方式
+        sb.append("vertical-align:")
+                .append(ExcelToHtml.convertVerticalAlignToHtml(cellStyle.getVerticalAlignment().getCode())).append(';');//单元格中内容的垂直排列方式
+
+        if (cellStyle instanceof XSSFCellStyle) {
+            XSSFCellStyle xStyle = (XSSFCellStyle) cellStyle;
+            XSSFFont xf = xStyle.getFont();
+            if(xf.getBold())
+                sb.append("font-weight:bold;"); // 字体加粗
+            sb.append("font-size:").append(xf.getFontHeight() / 2).append("%;"); // 字体大小
+
+            XSSFColor xc = xf.getXSSFColor();
+            if (xc != null) {
+                sb.append("color:#").append(xc.getARGBHex().substring(2)).append(';'); // 字体颜色
+            }
+            XSSFColor bgColor = xStyle.getFillForegroundColorColor();
+            if (bgColor != null) {
+                sb.append("background-color:#").append(bgColor.getARGBHex().substring(2)).append(';'); // 背景颜色
+            }
+            short border = cellStyle.getBorderBottom().getCode();
+            sb.append(ExcelToHtml.getBorderStyle(0, border, xStyle.getTopBorderXSSFColor()));
+            sb.append(ExcelToHtml.getBorderStyle(1, border, xStyle.getRightBorderXSSFColor()));
+            sb.append(ExcelToHtml.getBorderStyle(2, border, xStyle.getBottomBorderXSSFColor()));
+            sb.append(ExcelToHtml.getBorderStyle(3, border, xStyle.getLeftBorderXSSFColor()));
+
+        } else if (cellStyle instanceof HSSFCellStyle) {
+            HSSFFont hf = ((HSSFCellStyle) cellStyle).getFont(wb);
+            HSSFPalette palette = ((HSSFWorkbook) wb).getCustomPalette(); // 类HSSFPalette用于求的颜色的国际标准形式
+            if(hf.getBold())
+                sb.append("font-weight:bold;"); // 字体加粗
+            sb.append("font-size:").append(hf.getFontHeight() / 2).append("%;"); // 字体大小
+            String fontColorStr = ExcelToHtml.convertToStardColor(palette.getColor(hf.getColor()));
+            if (fontColorStr != null && !"".equals(fontColorStr.trim())) {
+                sb.append("color:").append(fontColorStr).append(';'); // 字体颜色
+            }
+            HSSFColor hc = palette.getColor(cellStyle.getFillForegroundColor());
+            String bgColorStr = ExcelToHtml.convertToStardColor(hc);
+            if (bgColorStr != null && !"".equals(bgColorStr.trim())) {
+                sb.append("background-color:").append(bgColorStr).append(';'); // 背景颜色
+            }
+            short border = cellStyle.getBorderBottom().getCode();
+            sb.append(ExcelToHtml.getBorderStyle(palette, 0, border, cellStyle.getTopBorderColor()));
+            sb.append(ExcelToHtml.getBorderStyle(palette, 1, border, cellStyle.getRightBorderColor()));
+            sb.append(ExcelToHtml.getBorderStyle(palette, 3, border, cellStyle.getLeftBorderColor()));
+            sb.append(ExcelToHtml.getBorderStyle(palette, 2, border, cellStyle.getBottomBorderColor()));
+        }
+        return sb.toString();
+    }
+}
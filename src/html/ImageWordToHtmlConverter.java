@@ -1,5 +1,6 @@
 package html;
 
+import org.apache.poi.hwpf.converter.HtmlDocumentFacade;
 import org.apache.poi.hwpf.converter.WordToHtmlConverter;
 import org.apache.poi.hwpf.usermodel.Picture;
 import org.w3c.dom.Document;
@@ -16,6 +17,10 @@ public class ImageWordToHtmlConverter extends WordToHtmlConverter {
         super(document);
     }
 
+    public ImageWordToHtmlConverter(HtmlDocumentFacade htmlDocumentFacade) {
+        super(htmlDocumentFacade);
+    }
+
     /**不适用PicturesManager的图片处理，图片转换为base64形式*/
     @Override
     protected void processImageWithoutPicturesManager(Element currentBlock,
@@ -0,0 +1,129 @@
+package html;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * 输出供前端表格组件使用的json
+ *
+ * 格式如下，单元格只包含有内容或有样式的，样式表按样式名称索引，内容为css声明，
+ * 名称与html输出中的class相同，条件格式覆盖了背景色的样式名称为 s{index}_{n}：
+ * <pre>
+ * {"sheets":[{"name":"Sheet1","columns":[64,64],"merges":[[0,0,1,1]],
+ *             "cells":[[0,0,"文本","s15"],[2,1,"12.5"]]}],
+ *  "styles":{"s15":"text-align:left;..."}}
+ * </pre>
+ * merges中的每一项为[起始行,起始列,结束行,结束列]，columns为每列的像素宽度，隐藏的列为0。
+ */
+final class JsonGridWriter {
+    private final Writer out;
+
+    private boolean firstSheet = true;
+
+    private boolean firstCell;
+
+    private boolean firstStyle = true;
+
+    JsonGridWriter(Writer out) {
+        this.out = out;
+    }
+
+    void startDocument() throws IOException {
+        out.write("{\"sheets\":[");
+    }
+
+    void startSheet(String name, int[] columnWidths, MergedRegionGrid merged) throws IOException {
+        if (!firstSheet) {
+            out.write(',');
+        }
+        firstSheet = false;
+        out.write("{\"name\":");
+        string(name);
+        out.write(",\"columns\":[");
+        for (int i = 0; i < columnWidths.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(Integer.toString(columnWidths[i]));
+        }
+        out.write("],\"merges\":[");
+        for (int i = 0; i < merged.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write("[" + merged.getFirstRow(i) + "," + merged.getFirstColumn(i) + ","
+                    + merged.getLastRow(i) + "," + merged.getLastColumn(i) + "]");
+        }
+        out.write("],\"cells\":[");
+        firstCell = true;
+    }
+
+    /**
+     * @param row 行号
+     * @param col 列号
+     * @param value 显示的文本
+     * @param styleName 样式名称，为null时不输出
+     */
+    void cell(int row, int col, String value, String styleName) throws IOException {
+        if (!firstCell) {
+            out.write(',');
+        }
+        firstCell = false;
+        out.write("[" + row + "," + col + ",");
+        string(value == null ? "" : value);
+        if (styleName != null) {
+            out.write(',');
+            string(styleName);
+        }
+        out.write(']');
+    }
+
+    void endSheet() throws IOException {
+        out.write("]}");
+    }
+
+    void style(String styleName, String css) throws IOException {
+        out.write(firstStyle ? "],\"styles\":{" : ",");
+        firstStyle = false;
+        string(styleName);
+        out.write(':');
+        string(css);
+    }
+
+    void endDocument() throws IOException {
+        out.write(firstStyle ? "],\"styles\":{}}" : "}}");
+    }
+
+    private void string(String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    // 控制字符，以及在js中作为换行的U+2028、U+2029
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+                    break;
+            }
+        }
+        out.write('"');
+    }
+}
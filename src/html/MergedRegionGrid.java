@@ -0,0 +1,216 @@
+package html;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 合并单元格的查找表
+ *
+ * 按行保存覆盖该行的合并区域（按起始列排序），查找某个单元格
+ * 所在的合并区域只需要一次数组下标和一次二分查找，不产生任何对象。
+ */
+final class MergedRegionGrid {
+    private static final int[] NO_REGIONS = new int[0];
+
+    private final int[] firstRows;
+
+    private final int[] lastRows;
+
+    private final int[] firstCols;
+
+    private final int[] lastCols;
+
+    /** rowRegions[0]对应的行号 */
+    private final int baseRow;
+
+    /** 每一行上的合并区域下标，按起始列升序 */
+    private final int[][] rowRegions;
+
+    /**
+     * @param regions 合并区域，应当已经用{@link #clamp}截断到sheet的最后一行
+     */
+    MergedRegionGrid(List<CellRangeAddress> regions) {
+        int size = regions.size();
+        firstRows = new int[size];
+        lastRows = new int[size];
+        firstCols = new int[size];
+        lastCols = new int[size];
+        Integer[] order = new Integer[size];
+        int minRow = Integer.MAX_VALUE;
+        int maxRow = -1;
+        for (int i = 0; i < size; i++) {
+            CellRangeAddress range = regions.get(i);
+            firstRows[i] = range.getFirstRow();
+            lastRows[i] = range.getLastRow();
+            firstCols[i] = range.getFirstColumn();
+            lastCols[i] = range.getLastColumn();
+            minRow = Math.min(minRow, firstRows[i]);
+            maxRow = Math.max(maxRow, lastRows[i]);
+            order[i] = i;
+        }
+        if (size == 0) {
+            baseRow = 0;
+            rowRegions = new int[0][];
+            return;
+        }
+        baseRow = minRow;
+        // 先按起始列排序，逐行填充后每一行的数组自然有序
+        Arrays.sort(order, (a, b) -> Integer.compare(firstCols[a], firstCols[b]));
+        int[] counts = new int[maxRow - minRow + 1];
+        for (int i = 0; i < size; i++) {
+            for (int r = firstRows[i]; r <= lastRows[i]; r++) {
+                counts[r - baseRow]++;
+            }
+        }
+        rowRegions = new int[counts.length][];
+        for (int r = 0; r < counts.length; r++) {
+            rowRegions[r] = counts[r] == 0 ? NO_REGIONS : new int[counts[r]];
+            counts[r] = 0;
+        }
+        for (int i : order) {
+            for (int r = firstRows[i]; r <= lastRows[i]; r++) {
+                rowRegions[r - baseRow][counts[r - baseRow]++] = i;
+            }
+        }
+    }
+
+    /**
+     * 读取sheet中所有的合并区域
+     * @param sheet
+     * @return
+     */
+    static MergedRegionGrid of(Sheet sheet) {
+        int mergedNum = sheet.getNumMergedRegions();
+        List<CellRangeAddress> regions = new ArrayList<>(mergedNum);
+        for (int i = 0; i < mergedNum; i++) {
+            regions.add(sheet.getMergedRegion(i));
+        }
+        return new MergedRegionGrid(clamp(regions, sheet.getLastRowNum()));
+    }
+
+    /**
+     * 把合并区域截断到sheet中最后一个实际存在的行，整列合并（例如A:A）不再覆盖上百万行，
+     * 完全在这一行之后的合并区域去掉
+     * @param regions
+     * @param lastRow 最后一行的行号，没有任何行时为-1
+     * @return
+     */
+    static List<CellRangeAddress> clamp(List<CellRangeAddress> regions, int lastRow) {
+        List<CellRangeAddress> clamped = new ArrayList<>(regions.size());
+        for (CellRangeAddress region : regions) {
+            if (region.getFirstRow() > lastRow) {
+                continue;
+            }
+            if (region.getLastRow() > lastRow) {
+                region = new CellRangeAddress(region.getFirstRow(), lastRow,
+                        region.getFirstColumn(), region.getLastColumn());
+            }
+            clamped.add(region);
+        }
+        return clamped;
+    }
+
+    /**
+     * 查找单元格所在的合并区域
+     * @param row
+     * @param col
+     * @return 合并区域的下标，不在任何合并区域内时返回-1
+     */
+    int find(int row, int col) {
+        int r = row - baseRow;
+        if (r < 0 || r >= rowRegions.length) {
+            return -1;
+        }
+        int[] regions = rowRegions[r];
+        int low = 0;
+        int high = regions.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int region = regions[mid];
+            if (col < firstCols[region]) {
+                high = mid - 1;
+            } else if (col > lastCols[region]) {
+                low = mid + 1;
+            } else {
+                return region;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 该行是否与任何合并区域相交
+     */
+    boolean hasRegions(int row) {
+        int r = row - baseRow;
+        return r >= 0 && r < rowRegions.length && rowRegions[r].length > 0;
+    }
+
+    /**
+     * 查找与合并区域相交的下一行
+     * @param fromRow 开始的行号（包含）
+     * @param toRow 结束的行号（不包含）
+     * @return 范围内没有这样的行时返回-1
+     */
+    int nextRowWithRegions(int fromRow, int toRow) {
+        int end = (int) Math.min((long) toRow - baseRow, rowRegions.length);
+        for (int r = Math.max(fromRow - baseRow, 0); r < end; r++) {
+            if (rowRegions[r].length > 0) {
+                return baseRow + r;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 该行上合并区域的最大结束列
+     * @return 没有合并区域时返回-1
+     */
+    int getLastColumnInRow(int row) {
+        int r = row - baseRow;
+        if (r < 0 || r >= rowRegions.length) {
+            return -1;
+        }
+        int lastCol = -1;
+        for (int region : rowRegions[r]) {
+            lastCol = Math.max(lastCol, lastCols[region]);
+        }
+        return lastCol;
+    }
+
+    boolean isFirstCell(int region, int row, int col) {
+        return firstRows[region] == row && firstCols[region] == col;
+    }
+
+    int size() {
+        return firstRows.length;
+    }
+
+    int getFirstRow(int region) {
+        return firstRows[region];
+    }
+
+    int getLastRow(int region) {
+        return lastRows[region];
+    }
+
+    int getFirstColumn(int region) {
+        return firstCols[region];
+    }
+
+    int getLastColumn(int region) {
+        return lastCols[region];
+    }
+
+    int getRowSpan(int region) {
+        return lastRows[region] - firstRows[region] + 1;
+    }
+
+    int getColSpan(int region) {
+        return lastCols[region] - firstCols[region] + 1;
+    }
+}
@@ -0,0 +1,102 @@
+package html;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一次转换的输出大小限制
+ *
+ * 主html和所有的行块共用一个限制，按UTF-8编码后的字节数计算，
+ * 超过限制时写入操作抛出IOException，转换随之中止。并行渲染的sheet可以同时写入。
+ */
+final class OutputLimit {
+    private final long maxBytes;
+
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * @param maxBytes 最多输出的字节数，0表示不限制
+     */
+    OutputLimit(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 计入这个限制的Writer
+     * @param out
+     * @return 不限制时返回out本身
+     */
+    Writer wrap(Writer out) {
+        if (maxBytes <= 0) {
+            return out;
+        }
+        return new FilterWriter(out) {
+            @Override
+            public void write(int c) throws IOException {
+                count(utf8Length((char) c));
+                super.write(c);
+            }
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                long bytes = 0;
+                for (int i = off; i < off + len; i++) {
+                    bytes += utf8Length(cbuf[i]);
+                }
+                count(bytes);
+                super.write(cbuf, off, len);
+            }
+
+            @Override
+            public void write(String str, int off, int len) throws IOException {
+                long bytes = 0;
+                for (int i = off; i < off + len; i++) {
+                    bytes += utf8Length(str.charAt(i));
+                }
+                count(bytes);
+                super.write(str, off, len);
+            }
+        };
+    }
+
+    /**
+     * 打开的每个行块都计入这个限制
+     * @param chunks
+     * @return chunks为null或不限制时返回chunks本身
+     */
+    HtmlChunkOutput wrap(HtmlChunkOutput chunks) {
+        if (chunks == null || maxBytes <= 0) {
+            return chunks;
+        }
+        return new HtmlChunkOutput() {
+            @Override
+            public Writer open(int sheetIndex, int chunkIndex) throws IOException {
+                return wrap(chunks.open(sheetIndex, chunkIndex));
+            }
+
+            @Override
+            public String url(int sheetIndex, int chunkIndex) {
+                return chunks.url(sheetIndex, chunkIndex);
+            }
+        };
+    }
+
+    private void count(long bytes) throws IOException {
+        if (written.addAndGet(bytes) > maxBytes) {
+            throw new IOException("输出超过限制: " + maxBytes + "字节");
+        }
+    }
+
+    /** 代理对中的每个char按2字节计算，合计为4字节 */
+    private static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800 || Character.isSurrogate(c)) {
+            return 2;
+        }
+        return 3;
+    }
+}
@@ -27,13 +27,14 @@ public class PPTToHtml {
      */
     public String PPT2003toHtml(String sourcePath, String htmlSavePath,int multiple) {
         List<String> base64List = new ArrayList<>();
-        String htmlName = SHA256.getSHA(sourcePath) + ".html";
-        File fileDir = new File(htmlSavePath + File.separator + htmlName);
-        // 如果已经存在，直接返回
-        if (fileDir.exists()) {
-           return htmlName;
-        }
         try(FileInputStream fis = new FileInputStream(sourcePath)) {
+            // 按文件内容和放大倍数命名，内容修改后会重新生成
+            String htmlName = ConversionCache.key(new File(sourcePath), "ppt|" + multiple) + ".html";
+            File fileDir = new File(htmlSavePath + File.separator + htmlName);
+            // 如果已经存在，直接返回
+            if (fileDir.exists()) {
+               return htmlName;
+            }
             try(HSLFSlideShow hss = new HSLFSlideShow(fis)) {
                 // 获取PPT每页的大小（宽和高度）
                 Dimension onePPTPageSize = hss.getPageSize();
@@ -82,9 +83,9 @@ public class PPTToHtml {
 
                 String html = createPPTHtml(base64List);
                 if(html != null){
-                    try(FileOutputStream fos = new FileOutputStream(htmlSavePath + File.separator + htmlName)){
-                        fos.write(html.getBytes("gbk"));
-                    }
+                    // 先写临时文件再改名，已经存在的html总是完整的
+                    byte[] bytes = html.getBytes("gbk");
+                    ConversionCache.writeAtomically(fileDir, out -> out.write(bytes));
                 }
                 return htmlName;
             }
@@ -107,13 +108,14 @@ public class PPTToHtml {
      */
     public String PPT2007toHtml(String sourcePath, String htmlSavePath, int multiple) {
         List<String> base64List = new ArrayList<>();
-        String htmlName = SHA256.getSHA(sourcePath) + ".html";
-        File fileDir = new File(htmlSavePath + File.separator + htmlName);
-        // 如果已经存在，直接返回
-        if (fileDir.exists()) {
-            return htmlName;
-        }
         try(FileInputStream fis = new FileInputStream(sourcePath)) {
+            // 按文件内容和放大倍数命名，内容修改后会重新生成
+            String htmlName = ConversionCache.key(new File(sourcePath), "pptx|" + multiple) + ".html";
+            File fileDir = new File(htmlSavePath + File.separator + htmlName);
+            // 如果已经存在，直接返回
+            if (fileDir.exists()) {
+                return htmlName;
+            }
             try(XMLSlideShow xss = new XMLSlideShow (fis)) {
                 // 获取PPT每页的大小（宽和高度）
                 Dimension onePPTPageSize = xss.getPageSize();
@@ -152,9 +154,9 @@ public class PPTToHtml {
 
                 String html = createPPTHtml(base64List);
                 if(html != null){
-                    try(FileOutputStream fos = new FileOutputStream(htmlSavePath + File.separator + htmlName)){
-                        fos.write(html.getBytes("gbk"));
-                    }
+                    // 先写临时文件再改名，已经存在的html总是完整的
+                    byte[] bytes = html.getBytes("gbk");
+                    ConversionCache.writeAtomically(fileDir, out -> out.write(bytes));
                 }
                 return htmlName;
             }
@@ -0,0 +1,414 @@
+package html;
+
+import org.apache.poi.hssf.util.HSSFColor;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.usermodel.ConditionalFormattingThreshold.RangeType;
+import org.apache.poi.ss.usermodel.IconMultiStateFormatting.IconSet;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+
+import java.util.*;
+
+/**
+ * 色阶、数据条和图标集的计算
+ *
+ * 这类规则的结果取决于整个区域的数值，逐个单元格评估时代价很高。
+ * 这里每条规则只遍历一遍区域内的单元格，同时求出最小值和最大值，
+ * 阈值按最小值、最大值或百分比计算，只有用到百分位数时才排序，
+ * 最后把每个单元格映射为背景色、数据条长度或图标。
+ */
+final class RangeFormatting {
+    /** 图标集中从低到高的颜色：红、黄、绿 */
+    private static final double[] ICON_POINTS = {0, 0.5, 1};
+
+    private static final int[] ICON_COLORS = {0xf8696b, 0xffeb84, 0x63be7b};
+
+    private static final int GRAY = 0x808080;
+
+    private RangeFormatting() {
+    }
+
+    /**
+     * 一个单元格上色阶、数据条和图标集的结果
+     */
+    static final class CellFormat {
+        private String fill;
+
+        private String bar;
+
+        private String icon;
+
+        private boolean valueHidden;
+
+        /**
+         * @return 色阶计算出的背景色，没有时为null
+         */
+        String getFill() {
+            return fill;
+        }
+
+        /**
+         * @return 数据条的css声明，没有时为null
+         */
+        String getBar() {
+            return bar;
+        }
+
+        /**
+         * @return 图标的html，没有时为null
+         */
+        String getIcon() {
+            return icon;
+        }
+
+        /**
+         * @return 规则设置了只显示图标或数据条，不显示单元格的值
+         */
+        boolean isValueHidden() {
+            return valueHidden;
+        }
+    }
+
+    static boolean isRangeRule(ConditionalFormattingRule rule) {
+        ConditionType type = rule.getConditionType();
+        return ConditionType.COLOR_SCALE.equals(type) || ConditionType.DATA_BAR.equals(type)
+                || ConditionType.ICON_SET.equals(type);
+    }
+
+    /**
+     * 计算sheet上所有的色阶、数据条和图标集规则
+     * @param sheet
+     * @return 按单元格地址索引的结果，键与{@link ConditionalFormattingIndex}相同
+     */
+    static Map<Long, CellFormat> evaluate(Sheet sheet) {
+        SheetConditionalFormatting formattings = sheet.getSheetConditionalFormatting();
+        List<ConditionalFormattingRule> rules = new ArrayList<>();
+        List<CellRangeAddress[]> ranges = new ArrayList<>();
+        for (int i = 0; i < formattings.getNumConditionalFormattings(); i++) {
+            ConditionalFormatting formatting = formattings.getConditionalFormattingAt(i);
+            for (int j = 0; j < formatting.getNumberOfRules(); j++) {
+                ConditionalFormattingRule rule = formatting.getRule(j);
+                if (isRangeRule(rule)) {
+                    rules.add(rule);
+                    ranges.add(formatting.getFormattingRanges());
+                }
+            }
+        }
+        if (rules.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        // 按优先级计算，同一个单元格上先计算的规则优先
+        Integer[] order = new Integer[rules.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> rules.get(i).getPriority()));
+
+        Map<Long, CellFormat> formats = new HashMap<>();
+        for (int i : order) {
+            ConditionalFormattingRule rule = rules.get(i);
+            Values values = Values.of(sheet, ranges.get(i));
+            if (values.size == 0) {
+                continue;
+            }
+            ConditionType type = rule.getConditionType();
+            if (ConditionType.COLOR_SCALE.equals(type)) {
+                colorScale(rule.getColorScaleFormatting(), values, formats);
+            } else if (ConditionType.DATA_BAR.equals(type)) {
+                dataBar(rule.getDataBarFormatting(), values, formats);
+            } else {
+                iconSet(rule.getMultiStateFormatting(), values, formats);
+            }
+        }
+        return formats;
+    }
+
+    private static void colorScale(ColorScaleFormatting scale, Values values, Map<Long, CellFormat> formats) {
+        if (scale == null) {
+            return;
+        }
+        ConditionalFormattingThreshold[] thresholds = scale.getThresholds();
+        Color[] colors = scale.getColors();
+        int count = Math.min(thresholds.length, colors.length);
+        if (count < 2) {
+            return;
+        }
+        double[] points = new double[count];
+        int[] rgbs = new int[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = threshold(thresholds[i], values, i == 0 ? values.min : values.max);
+            if (i > 0) {
+                points[i] = Math.max(points[i], points[i - 1]);
+            }
+            rgbs[i] = rgb(colors[i]);
+            if (rgbs[i] < 0) {
+                return;
+            }
+        }
+        for (int i = 0; i < values.size; i++) {
+            CellFormat format = format(formats, values.keys[i]);
+            if (format.fill == null) {
+                format.fill = toHex(colorAt(points, rgbs, values.values[i]));
+            }
+        }
+    }
+
+    private static void dataBar(DataBarFormatting dataBar, Values values, Map<Long, CellFormat> formats) {
+        if (dataBar == null) {
+            return;
+        }
+        int rgb = rgb(dataBar.getColor());
+        if (rgb < 0) {
+            return;
+        }
+        double low = threshold(dataBar.getMinThreshold(), values, values.min);
+        double high = threshold(dataBar.getMaxThreshold(), values, values.max);
+        int widthMin = dataBar.getWidthMin();
+        int widthMax = dataBar.getWidthMax();
+        if (widthMax <= widthMin) {
+            widthMin = 0;
+            widthMax = 100;
+        }
+        String direction = dataBar.isLeftToRight() ? "right" : "left";
+        String color = toHex(rgb);
+        for (int i = 0; i < values.size; i++) {
+            CellFormat format = format(formats, values.keys[i]);
+            if (format.bar != null) {
+                continue;
+            }
+            double ratio = high > low ? (values.values[i] - low) / (high - low) : 1;
+            ratio = Math.max(0, Math.min(1, ratio));
+            // 宽度取整数百分比，相同长度的数据条共用一个class
+            long width = Math.round(widthMin + (widthMax - widthMin) * ratio);
+            format.bar = "background-image:linear-gradient(to " + direction + "," + color + " " + width
+                    + "%,transparent " + width + "%);";
+            format.valueHidden |= dataBar.isIconOnly();
+        }
+    }
+
+    private static void iconSet(IconMultiStateFormatting iconSet, Values values, Map<Long, CellFormat> formats) {
+        if (iconSet == null || iconSet.getIconSet() == null) {
+            return;
+        }
+        IconSet set = iconSet.getIconSet();
+        ConditionalFormattingThreshold[] thresholds = iconSet.getThresholds();
+        int count = Math.min(set.num, thresholds.length);
+        if (count < 2) {
+            return;
+        }
+        double[] points = new double[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = threshold(thresholds[i], values, values.min);
+        }
+        String[] icons = new String[count];
+        for (int i = 0; i < count; i++) {
+            icons[i] = icon(set, i, count);
+        }
+        for (int i = 0; i < values.size; i++) {
+            CellFormat format = format(formats, values.keys[i]);
+            if (format.icon != null) {
+                continue;
+            }
+            // 第一个阈值是下限，值不小于第i个阈值时使用第i个图标
+            int index = 0;
+            for (int k = 1; k < count; k++) {
+                if (values.values[i] >= points[k]) {
+                    index = k;
+                }
+            }
+            format.icon = icons[iconSet.isReversed() ? count - 1 - index : index];
+            format.valueHidden |= iconSet.isIconOnly();
+        }
+    }
+
+    /**
+     * 图标用字符近似：箭头类的图标集用箭头，其余用圆点，颜色从红到绿
+     */
+    private static String icon(IconSet set, int index, int count) {
+        String glyph;
+        if (set.name.contains("Arrows")) {
+            switch (count) {
+                case 3:
+                    glyph = "↓→↑".substring(index, index + 1);
+                    break;
+                case 4:
+                    glyph = "↓↘↗↑".substring(index, index + 1);
+                    break;
+                default:
+                    glyph = "↓↘→↗↑".substring(index, index + 1);
+                    break;
+            }
+        } else {
+            glyph = "●";
+        }
+        int color = set.name.contains("Gray") ? GRAY : colorAt(ICON_POINTS, ICON_COLORS, (double) index / (count - 1));
+        return "<span style='color:" + toHex(color) + ";'>" + glyph + "</span>&nbsp;";
+    }
+
+    private static CellFormat format(Map<Long, CellFormat> formats, long key) {
+        return formats.computeIfAbsent(key, k -> new CellFormat());
+    }
+
+    /**
+     * 计算阈值，无法计算时（例如阈值是引用其他单元格的公式）使用默认值
+     */
+    private static double threshold(ConditionalFormattingThreshold threshold, Values values, double defaultValue) {
+        if (threshold == null || threshold.getRangeType() == null) {
+            return defaultValue;
+        }
+        RangeType type = threshold.getRangeType();
+        if (type == RangeType.MIN) {
+            return values.min;
+        } else if (type == RangeType.MAX) {
+            return values.max;
+        } else if (type == RangeType.PERCENT) {
+            return values.min + (values.max - values.min) * number(threshold, 0) / 100;
+        } else if (type == RangeType.PERCENTILE) {
+            return values.percentile(number(threshold, 0));
+        }
+        return number(threshold, defaultValue);
+    }
+
+    private static double number(ConditionalFormattingThreshold threshold, double defaultValue) {
+        try {
+            Double value = threshold.getValue();
+            if (value != null) {
+                return value;
+            }
+            String formula = threshold.getFormula();
+            return formula == null ? defaultValue : Double.parseDouble(formula);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * 在相邻的两个控制点之间线性插值
+     */
+    private static int colorAt(double[] points, int[] rgbs, double value) {
+        if (value <= points[0]) {
+            return rgbs[0];
+        }
+        for (int i = 1; i < points.length; i++) {
+            if (value <= points[i]) {
+                double span = points[i] - points[i - 1];
+                double ratio = span <= 0 ? 1 : (value - points[i - 1]) / span;
+                return mix(rgbs[i - 1], rgbs[i], ratio);
+            }
+        }
+        return rgbs[rgbs.length - 1];
+    }
+
+    private static int mix(int from, int to, double ratio) {
+        int rgb = 0;
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            int a = (from >> shift) & 0xff;
+            int b = (to >> shift) & 0xff;
+            rgb |= (int) Math.round(a + (b - a) * ratio) << shift;
+        }
+        return rgb;
+    }
+
+    /**
+     * @return 0xRRGGBB，无法解析的颜色（例如主题色）返回-1
+     */
+    private static int rgb(Color color) {
+        if (color instanceof ExtendedColor) {
+            byte[] rgb = ((ExtendedColor) color).getRGB();
+            if (rgb != null && rgb.length >= 3) {
+                int offset = rgb.length - 3;
+                return (rgb[offset] & 0xff) << 16 | (rgb[offset + 1] & 0xff) << 8 | rgb[offset + 2] & 0xff;
+            }
+        } else if (color instanceof HSSFColor) {
+            short[] triplet = ((HSSFColor) color).getTriplet();
+            return triplet[0] << 16 | triplet[1] << 8 | triplet[2];
+        }
+        return -1;
+    }
+
+    private static String toHex(int rgb) {
+        return String.format("#%06x", rgb);
+    }
+
+    /**
+     * 区域内的数值，一遍扫描得到最小值和最大值
+     */
+    private static final class Values {
+        private long[] keys = new long[64];
+
+        private double[] values = new double[64];
+
+        private int size;
+
+        private double min = Double.POSITIVE_INFINITY;
+
+        private double max = Double.NEGATIVE_INFINITY;
+
+        private double[] sorted;
+
+        static Values of(Sheet sheet, CellRangeAddress[] ranges) {
+            Values values = new Values();
+            for (CellRangeAddress range : ranges) {
+                // 整列的区域只遍历sheet中存在的行
+                int lastRow = Math.min(range.getLastRow(), sheet.getLastRowNum());
+                for (int rowNum = range.getFirstRow(); rowNum <= lastRow; rowNum++) {
+                    Row row = sheet.getRow(rowNum);
+                    if (row == null) {
+                        continue;
+                    }
+                    int lastCol = Math.min(range.getLastColumn(), row.getLastCellNum() - 1);
+                    for (int colNum = range.getFirstColumn(); colNum <= lastCol; colNum++) {
+                        Cell cell = row.getCell(colNum);
+                        if (cell != null && isNumeric(cell)) {
+                            values.add(ConditionalFormattingIndex.key(rowNum, colNum), cell.getNumericCellValue());
+                        }
+                    }
+                }
+            }
+            return values;
+        }
+
+        /**
+         * 数字单元格和结果为数字的公式单元格，公式使用文件中保存的计算结果
+         */
+        private static boolean isNumeric(Cell cell) {
+            switch (cell.getCellType()) {
+                case NUMERIC:
+                    return true;
+                case FORMULA:
+                    if (cell instanceof XSSFCell && ((XSSFCell) cell).getRawValue() == null) {
+                        return false;
+                    }
+                    return cell.getCachedFormulaResultType() == CellType.NUMERIC;
+                default:
+                    return false;
+            }
+        }
+
+        private void add(long key, double value) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            keys[size] = key;
+            values[size] = value;
+            size++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        /**
+         * 与Excel的PERCENTILE相同，在相邻的两个值之间插值
+         */
+        double percentile(double percent) {
+            if (sorted == null) {
+                sorted = Arrays.copyOf(values, size);
+                Arrays.sort(sorted);
+            }
+            double rank = Math.max(0, Math.min(100, percent)) / 100 * (size - 1);
+            int lower = (int) Math.floor(rank);
+            int upper = Math.min(lower + 1, size - 1);
+            return sorted[lower] + (sorted[upper] - sorted[lower]) * (rank - lower);
+        }
+    }
+}
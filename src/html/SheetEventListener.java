@@ -0,0 +1,38 @@
+package html;
+
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 流式读取Excel时，按文件中的顺序接收sheet、行和单元格的事件
+ *
+ * 同一个sheet中行号递增，同一行中列号递增，不存在的行和单元格不会产生事件。
+ */
+public interface SheetEventListener {
+    /**
+     * 开始一个sheet，在该sheet的第一行之前调用
+     * @param sheetIndex sheet的编号
+     * @param sheetName sheet的名称
+     * @param mergedRegions sheet中所有的合并区域
+     * @param columnWidths sheet的列宽
+     */
+    void startSheet(int sheetIndex, String sheetName, List<CellRangeAddress> mergedRegions,
+                    ColumnWidths columnWidths) throws IOException;
+
+    void startRow(int rowNum) throws IOException;
+
+    /**
+     * 一个单元格
+     * @param rowNum 行号
+     * @param colNum 列号
+     * @param value 按单元格格式转换后的文本，空白单元格为空字符串
+     * @param styleIndex 单元格样式的索引
+     */
+    void cell(int rowNum, int colNum, String value, int styleIndex) throws IOException;
+
+    void endRow(int rowNum) throws IOException;
+
+    void endSheet(int sheetIndex) throws IOException;
+}
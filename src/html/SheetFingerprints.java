@@ -0,0 +1,410 @@
+package html;
+
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.record.*;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.PackageRelationshipTypes;
+import org.apache.poi.openxml4j.opc.TargetMode;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 不解析workbook，计算每个sheet的指纹
+ *
+ * 指纹包含sheet本身的内容、sheet用到的共享字符串、影响样式的全局数据、sheet的名称和位置，
+ * 只修改了一个sheet时其它sheet的指纹不变，可以继续使用上次生成的html片段。
+ * xlsx使用sheet的xml、sheet引用的绘图和图片，以及workbook.xml（包括定义的名称）和
+ * 它引用的styles.xml、主题等全局部件；xls使用sheet中的记录和全局记录，
+ * 其中记录文件偏移量的记录（BoundSheet、Index、DBCell、ExtSST）以及
+ * 只影响界面的记录（当前sheet、选中区域）不计算在内。
+ * 需要实时计算的公式可能引用其它sheet，含有这种公式的sheet的指纹还包含所有sheet的内容，
+ * 任何一个sheet修改后都重新生成。
+ */
+final class SheetFingerprints {
+    private final List<String> sheetNames;
+
+    private final List<String> fingerprints;
+
+    private SheetFingerprints(List<String> sheetNames, List<String> fingerprints) {
+        this.sheetNames = Collections.unmodifiableList(sheetNames);
+        this.fingerprints = Collections.unmodifiableList(fingerprints);
+    }
+
+    /**
+     * @param source xls或xlsx文件
+     * @param cachedFormulaResults 是否使用公式保存的计算结果，为false时所有的公式都实时计算
+     * @return
+     * @throws IOException
+     */
+    static SheetFingerprints of(File source, boolean cachedFormulaResults) throws IOException {
+        FileMagic magic;
+        try (InputStream is = FileMagic.prepareToCheckMagic(new FileInputStream(source))) {
+            magic = FileMagic.valueOf(is);
+        }
+        switch (magic) {
+            case OLE2:
+                return ofXls(source, cachedFormulaResults);
+            case OOXML:
+                return ofXlsx(source, cachedFormulaResults);
+            default:
+                throw new IOException("不是Excel文件: " + source.getPath());
+        }
+    }
+
+    List<String> getSheetNames() {
+        return sheetNames;
+    }
+
+    String get(int sheetIndex) {
+        return fingerprints.get(sheetIndex);
+    }
+
+    int size() {
+        return fingerprints.size();
+    }
+
+    private static SheetFingerprints ofXlsx(File source, boolean cachedFormulaResults) throws IOException {
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(source, PackageAccess.READ);
+        } catch (InvalidFormatException e) {
+            throw new IOException("无法读取的xlsx文件", e);
+        }
+        try {
+            XSSFEventReader reader = new XSSFEventReader(pkg);
+            MessageDigest globals = sha256();
+            updateWorkbookParts(globals, pkg);
+            byte[] globalsHash = globals.digest();
+
+            int sheetCount = reader.getSheetNames().size();
+            byte[][] contents = new byte[sheetCount][];
+            boolean[] liveFormulas = new boolean[sheetCount];
+            for (int i = 0; i < sheetCount; i++) {
+                MessageDigest sheet = sha256();
+                sheet.update(globalsHash);
+                CellsHandler handler = new CellsHandler(reader.getSharedStrings(), sheet, cachedFormulaResults);
+                // 解析sheet的同时计算xml的摘要，文件只读取一遍
+                PackagePart sheetPart = reader.getSheetPart(i);
+                try (InputStream is = new DigestInputStream(sheetPart.getInputStream(), sheet)) {
+                    XSSFEventReader.parse(is, handler);
+                }
+                updateRelatedParts(sheet, sheetPart, 2);
+                contents[i] = sheet.digest();
+                liveFormulas[i] = handler.liveFormulas;
+            }
+            List<String> sheetNames = new ArrayList<>(reader.getSheetNames());
+            return new SheetFingerprints(sheetNames, fingerprints(sheetNames, contents, liveFormulas));
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    /**
+     * 计算workbook.xml和它引用的全局部件（样式、主题、外部链接等）的摘要，
+     * sheet和共享字符串表不计算在内，sheet中实际使用的字符串由{@link CellsHandler}计入
+     * @param digest
+     * @param pkg
+     * @throws IOException
+     */
+    private static void updateWorkbookParts(MessageDigest digest, OPCPackage pkg) throws IOException {
+        try {
+            PackageRelationship document =
+                    pkg.getRelationshipsByType(PackageRelationshipTypes.CORE_DOCUMENT).getRelationship(0);
+            PackagePart workbook = pkg.getPart(document);
+            if (workbook == null) {
+                throw new IOException("无法读取的xlsx文件");
+            }
+            try (InputStream is = workbook.getInputStream()) {
+                update(digest, is);
+            }
+            for (PackageRelationship relationship : workbook.getRelationships()) {
+                String type = relationship.getRelationshipType();
+                if (relationship.getTargetMode() != TargetMode.INTERNAL || type.endsWith("/worksheet")
+                        || type.endsWith("/chartsheet") || type.endsWith("/sharedStrings")
+                        || type.endsWith("/calcChain")) {
+                    continue;
+                }
+                PackagePart related = workbook.getRelatedPart(relationship);
+                if (related == null) {
+                    continue;
+                }
+                digest.update(related.getPartName().getName().getBytes(StandardCharsets.UTF_8));
+                try (InputStream is = related.getInputStream()) {
+                    update(digest, is);
+                }
+            }
+        } catch (InvalidFormatException e) {
+            throw new IOException("无法读取的xlsx文件", e);
+        }
+    }
+
+    /**
+     * 计算sheet引用的绘图和图片等部件的摘要，图片由绘图部件引用，需要再深入一层
+     * @param digest
+     * @param part
+     * @param depth 深入的层数
+     * @throws IOException
+     */
+    private static void updateRelatedParts(MessageDigest digest, PackagePart part, int depth) throws IOException {
+        if (depth == 0) {
+            return;
+        }
+        try {
+            for (PackageRelationship relationship : part.getRelationships()) {
+                if (relationship.getTargetMode() != TargetMode.INTERNAL) {
+                    continue;
+                }
+                PackagePart related = part.getRelatedPart(relationship);
+                if (related == null) {
+                    continue;
+                }
+                digest.update(related.getPartName().getName().getBytes(StandardCharsets.UTF_8));
+                try (InputStream is = related.getInputStream()) {
+                    update(digest, is);
+                }
+                updateRelatedParts(digest, related, depth - 1);
+            }
+        } catch (InvalidFormatException e) {
+            throw new IOException("无法读取的xlsx文件", e);
+        }
+    }
+
+    private static SheetFingerprints ofXls(File source, boolean cachedFormulaResults) throws IOException {
+        try (POIFSFileSystem fs = new POIFSFileSystem(source, true)) {
+            RecordsListener listener = new RecordsListener();
+            HSSFRequest request = new HSSFRequest();
+            request.addListenerForAllRecords(listener);
+            new HSSFEventFactory().processWorkbookEvents(request, fs);
+
+            List<String> sheetNames = new ArrayList<>();
+            for (BoundSheetRecord boundSheet : BoundSheetRecord.orderByBofPosition(listener.boundSheets)) {
+                sheetNames.add(boundSheet.getSheetname());
+            }
+            byte[] globalsHash = listener.globals.digest();
+            int sheetCount = listener.sheets.size();
+            byte[][] contents = new byte[sheetCount][];
+            boolean[] liveFormulas = new boolean[sheetCount];
+            for (int i = 0; i < sheetCount; i++) {
+                MessageDigest sheet = sha256();
+                sheet.update(globalsHash);
+                sheet.update(listener.sheets.get(i).digest());
+                contents[i] = sheet.digest();
+                // xls的公式记录总是带有计算结果，只有不使用保存的结果时才实时计算
+                liveFormulas[i] = !cachedFormulaResults && listener.formulaSheets.contains(i);
+            }
+            while (sheetNames.size() < sheetCount) {
+                sheetNames.add("");
+            }
+            return new SheetFingerprints(sheetNames, fingerprints(sheetNames, contents, liveFormulas));
+        }
+    }
+
+    /**
+     * 由每个sheet内容的摘要生成指纹，有实时计算的公式的sheet还包含所有sheet的内容
+     * @param sheetNames
+     * @param contents 每个sheet内容的摘要
+     * @param liveFormulas 每个sheet是否有实时计算的公式
+     * @return
+     */
+    private static List<String> fingerprints(List<String> sheetNames, byte[][] contents, boolean[] liveFormulas) {
+        List<String> fingerprints = new ArrayList<>();
+        for (int i = 0; i < contents.length; i++) {
+            MessageDigest digest = sha256();
+            digest.update(contents[i]);
+            if (liveFormulas[i]) {
+                for (int j = 0; j < contents.length; j++) {
+                    digest.update(contents[j]);
+                    digest.update(sheetNames.get(j).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            fingerprints.add(finish(digest, sheetNames.get(i), i));
+        }
+        return fingerprints;
+    }
+
+    private static String finish(MessageDigest digest, String sheetName, int sheetIndex) {
+        digest.update((sheetIndex + "|" + sheetName).getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void update(MessageDigest digest, InputStream is) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = is.read(buffer)) != -1) {
+            digest.update(buffer, 0, n);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * sheet中引用共享字符串的单元格，把字符串的内容计入摘要，同时检查是否有实时计算的公式
+     */
+    private static class CellsHandler extends DefaultHandler {
+        private final ReadOnlySharedStringsTable sharedStrings;
+
+        private final MessageDigest digest;
+
+        private final boolean cachedFormulaResults;
+
+        private final StringBuilder text = new StringBuilder();
+
+        private boolean sharedString;
+
+        private boolean inValue;
+
+        private boolean hasFormula;
+
+        private boolean hasValue;
+
+        /** 是否有不使用保存的结果、转换时实时计算的公式 */
+        private boolean liveFormulas;
+
+        CellsHandler(ReadOnlySharedStringsTable sharedStrings, MessageDigest digest, boolean cachedFormulaResults) {
+            this.sharedStrings = sharedStrings;
+            this.digest = digest;
+            this.cachedFormulaResults = cachedFormulaResults;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "c":
+                    sharedString = "s".equals(attributes.getValue("t"));
+                    hasFormula = false;
+                    hasValue = false;
+                    break;
+                case "f":
+                    hasFormula = true;
+                    break;
+                case "v":
+                    hasValue = true;
+                    if (sharedString) {
+                        inValue = true;
+                        text.setLength(0);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if ("v".equals(localName) && inValue) {
+                inValue = false;
+                String value = sharedStrings.getItemAt(Integer.parseInt(text.toString())).getString();
+                digest.update(value.getBytes(StandardCharsets.UTF_8));
+            } else if ("c".equals(localName) && hasFormula && (!cachedFormulaResults || !hasValue)) {
+                // 没有保存结果的公式即使使用保存的结果也需要计算
+                liveFormulas = true;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inValue) {
+                text.append(ch, start, length);
+            }
+        }
+    }
+
+    /**
+     * 按sheet分别计算记录的摘要，全局记录单独计算
+     */
+    private static class RecordsListener implements HSSFListener {
+        private final MessageDigest globals = sha256();
+
+        private final List<MessageDigest> sheets = new ArrayList<>();
+
+        private final List<BoundSheetRecord> boundSheets = new ArrayList<>();
+
+        /** 含有公式的sheet的编号 */
+        private final Set<Integer> formulaSheets = new HashSet<>();
+
+        private SSTRecord sst;
+
+        private int depth;
+
+        private MessageDigest current;
+
+        @Override
+        public void processRecord(Record record) {
+            switch (record.getSid()) {
+                case BOFRecord.sid:
+                    depth++;
+                    if (depth == 1) {
+                        if (((BOFRecord) record).getType() == BOFRecord.TYPE_WORKBOOK) {
+                            current = globals;
+                        } else {
+                            current = sha256();
+                            sheets.add(current);
+                        }
+                    }
+                    break;
+                case EOFRecord.sid:
+                    depth--;
+                    break;
+                case BoundSheetRecord.sid:
+                    boundSheets.add((BoundSheetRecord) record);
+                    return;
+                case SSTRecord.sid:
+                    sst = (SSTRecord) record;
+                    return;
+                case FormulaRecord.sid:
+                    if (current != globals) {
+                        formulaSheets.add(sheets.size() - 1);
+                    }
+                    break;
+                case LabelSSTRecord.sid:
+                    // 共享字符串表在所有sheet之间共用，只计入单元格实际引用的字符串
+                    current.update(sst.getString(((LabelSSTRecord) record).getSSTIndex()).getString()
+                            .getBytes(StandardCharsets.UTF_8));
+                    break;
+                case ExtSSTRecord.sid:
+                case IndexRecord.sid:
+                case DBCellRecord.sid:
+                case WindowOneRecord.sid:
+                case WindowTwoRecord.sid:
+                case SelectionRecord.sid:
+                    return;
+                default:
+                    break;
+            }
+            if (current != null) {
+                current.update(record.serialize());
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package html;
+
+import org.apache.poi.hssf.usermodel.HSSFClientAnchor;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.ImageUtils;
+import org.apache.poi.util.Units;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * sheet中锚定在单元格上的图片
+ *
+ * 图片在转换时保存到{@link AssetStore}，html中每张图片放在锚点所在行的第一个单元格中，
+ * 按锚点相对于这个单元格的偏移绝对定位，并延迟加载。
+ * 锚点所在的行没有输出时（稀疏模式跳过的空行），放在之后第一个输出的行中；
+ * 在最后一个输出的行之后的图片放在表格末尾单独的一行中。
+ * 图表需要重新绘制，不在这里处理。
+ */
+final class SheetPictures {
+    private static final SheetPictures EMPTY = new SheetPictures(null, null, Collections.<Integer, List<Item>>emptyMap());
+
+    private final Sheet sheet;
+
+    private final UsedRange range;
+
+    /** 键为图片所在的输出行在range中的序号，range.size()表示表格末尾 */
+    private final Map<Integer, List<Item>> items;
+
+    private SheetPictures(Sheet sheet, UsedRange range, Map<Integer, List<Item>> items) {
+        this.sheet = sheet;
+        this.range = range;
+        this.items = items;
+    }
+
+    /**
+     * 读取sheet中的图片并保存
+     * @param sheet
+     * @param range 需要输出的行和列
+     * @param assets 保存图片的位置
+     * @return
+     * @throws IOException
+     */
+    static SheetPictures of(Sheet sheet, UsedRange range, AssetStore assets) throws IOException {
+        List<Picture> pictures = new ArrayList<>();
+        // HSSF第一次读取图片时会把sheet中的绘图记录合并为一个聚合记录，并行渲染时需要与其他sheet互斥
+        synchronized (sheet.getWorkbook()) {
+            Drawing<?> drawing = sheet.getDrawingPatriarch();
+            if (drawing != null) {
+                for (Shape shape : drawing) {
+                    if (shape instanceof Picture) {
+                        pictures.add((Picture) shape);
+                    }
+                }
+            }
+        }
+        if (pictures.isEmpty()) {
+            return EMPTY;
+        }
+        Map<Integer, List<Item>> items = new HashMap<>();
+        for (Picture picture : pictures) {
+            PictureData data = picture.getPictureData();
+            ClientAnchor anchor = picture.getClientAnchor();
+            if (data == null || anchor == null) {
+                continue;
+            }
+            Item item = new Item();
+            item.url = assets.store(data.getData(), data.suggestFileExtension(), data.getMimeType());
+            item.row = anchor.getRow1();
+            item.col = anchor.getCol1();
+            Dimension size = ImageUtils.getDimensionFromAnchor(picture);
+            item.width = Math.round((float) size.getWidth() / Units.EMU_PER_PIXEL);
+            item.height = Math.round((float) size.getHeight() / Units.EMU_PER_PIXEL);
+            if (anchor instanceof HSSFClientAnchor) {
+                // xls的偏移是单元格宽度的1/1024和高度的1/256
+                item.dx = Math.round(anchor.getDx1() / 1024f * sheet.getColumnWidthInPixels(item.col));
+                item.dy = Math.round(anchor.getDy1() / 256f * (float) ImageUtils.getRowHeightInPixels(sheet, item.row));
+            } else {
+                item.dx = anchor.getDx1() / Units.EMU_PER_PIXEL;
+                item.dy = anchor.getDy1() / Units.EMU_PER_PIXEL;
+            }
+            int index = indexOf(range, item.row);
+            if (index < range.size() && range.getRowNum(index) != item.row) {
+                item.dy = 0;
+            }
+            items.computeIfAbsent(index, k -> new ArrayList<>(1)).add(item);
+        }
+        return new SheetPictures(sheet, range, items);
+    }
+
+    /**
+     * 第一个行号不小于row的输出行的序号
+     */
+    private static int indexOf(UsedRange range, int row) {
+        int low = 0;
+        int high = range.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (range.getRowNum(mid) < row) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /**
+     * 放在一个输出行中的图片
+     * @param index 输出行在range中的序号，range.size()表示表格末尾
+     * @param firstCol 这一行第一个单元格的列号，图片相对于这个单元格定位
+     * @return 没有图片时返回null
+     */
+    String getHtml(int index, int firstCol) {
+        List<Item> rowItems = items.get(index);
+        if (rowItems == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder("<div style='position:relative;height:0;'>");
+        for (Item item : rowItems) {
+            int left = columnOffset(firstCol, item.col) + item.dx;
+            sb.append("<img src='").append(item.url).append("' loading='lazy' decoding='async' alt='' ")
+                    .append("style='position:absolute;left:").append(left).append("px;top:").append(item.dy)
+                    .append("px;width:").append(item.width).append("px;height:").append(item.height).append("px;'>");
+        }
+        sb.append("</div>");
+        return sb.toString();
+    }
+
+    /**
+     * 从from列到to列之间输出的列的像素宽度，to在from之前时为负数
+     */
+    private int columnOffset(int from, int to) {
+        int sign = 1;
+        if (to < from) {
+            int col = to;
+            to = from;
+            from = col;
+            sign = -1;
+        }
+        float width = 0;
+        for (int col = from; col < to; col++) {
+            if (!range.isColumnHidden(col)) {
+                width += sheet.getColumnWidthInPixels(col);
+            }
+        }
+        return sign * Math.round(width);
+    }
+
+    private static final class Item {
+        private String url;
+
+        private int row;
+
+        private int col;
+
+        private int dx;
+
+        private int dy;
+
+        private int width;
+
+        private int height;
+    }
+}
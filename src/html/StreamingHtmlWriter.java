@@ -0,0 +1,169 @@
+package html;
+
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * 把流式读取到的单元格直接输出为html
+ *
+ * 输出的内容与{@link ExcelToHtml#getExcelInfo}相同，每一行在内存中拼接好后
+ * 立即写入Writer，内存占用只与一行的大小有关。
+ */
+final class StreamingHtmlWriter implements SheetEventListener {
+    private final Writer out;
+
+    private final HtmlStyleSheet styleSheet;
+
+    private final ExcelToHtmlOptions options;
+
+    /** 已经读到的单元格数，用于检查{@link ExcelToHtmlOptions#getMaxCells()} */
+    private long cellCount;
+
+    private final StringBuffer sb = new StringBuffer();
+
+    private MergedRegionGrid merged;
+
+    private ColumnWidths columnWidths;
+
+    /** 上一个输出的行号，-1表示sheet中还没有输出任何行 */
+    private int lastRowNum;
+
+    /** 当前行中下一个需要输出的列号 */
+    private int nextColNum;
+
+    /**
+     * @param out 输出html的Writer
+     * @param styleSheet 单元格样式对应的css
+     * @param options 使用其中的资源地址前缀和单元格数限制
+     */
+    StreamingHtmlWriter(Writer out, HtmlStyleSheet styleSheet, ExcelToHtmlOptions options) {
+        this.out = out;
+        this.styleSheet = styleSheet;
+        this.options = options;
+    }
+
+    void startDocument(List<String> sheetNames) throws IOException {
+        ExcelToHtml.appendDocumentStart(sb, sheetNames, options.getResourceDomain());
+        write();
+    }
+
+    void endDocument() throws IOException {
+        ExcelToHtml.appendDocumentEnd(sb);
+        write();
+        out.flush();
+    }
+
+    @Override
+    public void startSheet(int sheetIndex, String sheetName, List<CellRangeAddress> mergedRegions,
+                           ColumnWidths columnWidths) throws IOException {
+        this.merged = new MergedRegionGrid(mergedRegions);
+        this.columnWidths = columnWidths;
+        this.lastRowNum = -1;
+        ExcelToHtml.appendSheetStart(sb, sheetIndex);
+        write();
+    }
+
+    @Override
+    public void startRow(int rowNum) throws IOException {
+        appendMissingRows(rowNum);
+        appendGap(rowNum);
+        sb.append("<tr>");
+        nextColNum = 0;
+    }
+
+    @Override
+    public void cell(int rowNum, int colNum, String value, int styleIndex) throws IOException {
+        if (options.getMaxCells() > 0 && ++cellCount > options.getMaxCells()) {
+            throw new IOException("单元格数超过限制: " + options.getMaxCells());
+        }
+        // 补齐中间缺少的单元格
+        appendMissingCells(rowNum, colNum);
+        nextColNum = colNum + 1;
+
+        int region = merged.find(rowNum, colNum);
+        if (region >= 0) {
+            if (!merged.isFirstCell(region, rowNum, colNum)) {
+                return;
+            }
+            sb.append("<td rowspan= '" + merged.getRowSpan(region) + "' colspan= '"+ merged.getColSpan(region) + "' ");
+        } else {
+            sb.append("<td ");
+        }
+        // 流式读取时开始输出sheet之前还不知道列数，宽度仍写在单元格上
+        ExcelToHtml.appendStyleAttributes(sb, styleSheet.getStyleClass(styleIndex),
+                Math.round(columnWidths.getColumnWidthInPixels(colNum)));
+        sb.append(">");
+        ExcelToHtml.appendCellValue(sb, value);
+        sb.append("</td>");
+    }
+
+    @Override
+    public void endRow(int rowNum) throws IOException {
+        // 最后一个单元格之后开始的合并区域
+        appendMissingCells(rowNum, merged.getLastColumnInRow(rowNum) + 1);
+        sb.append("</tr>");
+        styleSheet.flush(sb);
+        lastRowNum = rowNum;
+        write();
+    }
+
+    @Override
+    public void endSheet(int sheetIndex) throws IOException {
+        appendMissingRows(Integer.MAX_VALUE);
+        if (lastRowNum < 0) {
+            // 与usermodel一致，空的sheet输出一个空行
+            sb.append("<tr><td >&nbsp;&nbsp;</td></tr>");
+        }
+        ExcelToHtml.appendSheetEnd(sb);
+        write();
+    }
+
+    /**
+     * 输出rowNum之前文件中不存在、但与合并区域相交的行，
+     * 这些行计算在合并区域的rowspan中，不能与其它缺少的行合并为一个占位行
+     * @param rowNum 下一个从文件中读到的行
+     */
+    private void appendMissingRows(int rowNum) {
+        for (int r = merged.nextRowWithRegions(lastRowNum + 1, rowNum); r >= 0;
+             r = merged.nextRowWithRegions(r + 1, rowNum)) {
+            appendGap(r);
+            sb.append("<tr>");
+            nextColNum = 0;
+            appendMissingCells(r, merged.getLastColumnInRow(r) + 1);
+            sb.append("</tr>");
+            lastRowNum = r;
+        }
+    }
+
+    /**
+     * 与上一个输出的行之间连续缺少的行只输出一个占位行
+     */
+    private void appendGap(int rowNum) {
+        if (lastRowNum >= 0 && rowNum > lastRowNum + 1) {
+            sb.append("<tr><td >&nbsp;&nbsp;</td></tr>");
+        }
+    }
+
+    /**
+     * 补齐当前行中colNum之前缺少的单元格，合并区域只在左上角输出占位的单元格
+     */
+    private void appendMissingCells(int rowNum, int colNum) {
+        for (int col = nextColNum; col < colNum; col++) {
+            int region = merged.find(rowNum, col);
+            if (region < 0) {
+                sb.append("<td>&nbsp;</td>");
+            } else if (merged.isFirstCell(region, rowNum, col)) {
+                sb.append("<td rowspan= '" + merged.getRowSpan(region) + "' colspan= '"+ merged.getColSpan(region) + "'>&nbsp;</td>");
+            }
+        }
+        nextColNum = Math.max(nextColNum, colNum);
+    }
+
+    private void write() throws IOException {
+        out.append(sb);
+        sb.setLength(0);
+    }
+}
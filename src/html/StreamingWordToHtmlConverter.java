@@ -0,0 +1,296 @@
+package html;
+
+import org.apache.poi.hwpf.HWPFDocument;
+import org.apache.poi.hwpf.HWPFDocumentCore;
+import org.apache.poi.hwpf.converter.HtmlDocumentFacade;
+import org.apache.poi.hwpf.usermodel.Paragraph;
+import org.apache.poi.hwpf.usermodel.Section;
+import org.apache.poi.hwpf.usermodel.Table;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.*;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 大文件doc转换为html
+ *
+ * {@link ImageWordToHtmlConverter}先把整个文档建成DOM再输出，这里使用相同的转换逻辑，
+ * 但每处理完一个顶层的段落或表格就把它写到Writer中并从DOM中移除，
+ * DOM中只保留正在处理的块，前面的段落不必等到整个文档处理完才输出。
+ * css class在第一次使用时随后面的块输出为style元素，与{@link HtmlStyleSheet#flush}相同。
+ * 脚注和尾注在文档末尾输出，转换结束之前一直保留在DOM中。
+ */
+public class StreamingWordToHtmlConverter extends ImageWordToHtmlConverter {
+    /** 累计输出超过这个字符数时刷新Writer，第一个块输出后立即刷新 */
+    private static final int FLUSH_CHARS = 16 * 1024;
+
+    private final StyleTrackingFacade facade;
+
+    private final Writer out;
+
+    private final Transformer serializer;
+
+    /** 一次输出的内容，写完后清空 */
+    private final StringWriter buffer = new StringWriter();
+
+    /** 是否已经输出了head和body的开始标签 */
+    private boolean started;
+
+    /** 已经输出了开始标签、还没有结束的section */
+    private Element openSection;
+
+    /** 上次刷新Writer之后输出的字符数，-1表示还没有刷新过 */
+    private int unflushed = -1;
+
+    private StreamingWordToHtmlConverter(StyleTrackingFacade facade, Writer out, Transformer serializer) {
+        super(facade);
+        this.facade = facade;
+        this.out = out;
+        this.serializer = serializer;
+    }
+
+    /**
+     * doc转换为html，写入到writer中
+     *
+     * @param source doc文件
+     * @param writer 输出html的writer
+     * @throws IOException
+     */
+    public static void convert(File source, Writer writer) throws IOException {
+        try (POIFSFileSystem fs = new POIFSFileSystem(source, true)) {
+            convert(new HWPFDocument(fs), writer);
+        }
+    }
+
+    /**
+     * doc转换为html，写入到writer中
+     *
+     * @param document 打开的doc文档
+     * @param writer 输出html的writer
+     * @throws IOException
+     */
+    public static void convert(HWPFDocument document, Writer writer) throws IOException {
+        StyleTrackingFacade facade;
+        Transformer serializer;
+        try {
+            facade = new StyleTrackingFacade(DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument());
+            serializer = TransformerPool.acquire();
+        } catch (ParserConfigurationException | TransformerException e) {
+            throw new IOException(e);
+        }
+        try {
+            new StreamingWordToHtmlConverter(facade, writer, serializer).processDocument(document);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            TransformerPool.release(serializer);
+        }
+    }
+
+    @Override
+    protected void processParagraph(HWPFDocumentCore wordDocument, Element parentElement, int currentTableLevel,
+                                    Paragraph paragraph, String bulletText) {
+        super.processParagraph(wordDocument, parentElement, currentTableLevel, paragraph, bulletText);
+        flushBlocks(parentElement);
+    }
+
+    @Override
+    protected void processTable(HWPFDocumentCore wordDocument, Element flow, Table table) {
+        super.processTable(wordDocument, flow, table);
+        flushBlocks(flow);
+    }
+
+    @Override
+    protected void processSection(HWPFDocumentCore wordDocument, Section section, int sectionCounter) {
+        super.processSection(wordDocument, section, sectionCounter);
+        // 父类把section的div追加在body的末尾
+        Element body = facade.getBody();
+        Element div = (Element) body.getLastChild();
+        try {
+            startDocument();
+            if (div == openSection) {
+                writeChildren(div);
+                buffer.append("</div>");
+                openSection = null;
+            } else {
+                writeStyles();
+                serialize(div);
+            }
+            body.removeChild(div);
+            write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected void afterProcess() {
+        // 父类在这里追加脚注和尾注
+        super.afterProcess();
+        try {
+            startDocument();
+            writeChildren(facade.getBody());
+            writeStyles();
+            buffer.append("</body></html>");
+            write();
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 输出并移除顶层容器（body或section的div）中已经处理完的块，
+     * 表格单元格和脚注中的段落等到所在的顶层块结束时一起输出
+     * @param flow 段落或表格所在的元素
+     */
+    private void flushBlocks(Element flow) {
+        Element body = facade.getBody();
+        if (flow != body && flow.getParentNode() != body) {
+            return;
+        }
+        try {
+            startDocument();
+            if (flow != body && flow != openSection) {
+                appendStartTag(flow);
+                openSection = flow;
+            }
+            writeChildren(flow);
+            write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 第一次输出时写出head和body的开始标签，此时文档信息和body的样式都已经设置好了
+     */
+    private void startDocument() throws IOException {
+        if (started) {
+            return;
+        }
+        started = true;
+        buffer.append("<html><head><META http-equiv=\"Content-Type\" content=\"text/html; charset=utf-8\">");
+        for (Node child = facade.getHead().getFirstChild(); child != null; child = child.getNextSibling()) {
+            // 父类的style元素在转换结束时才填写内容，改为输出已经使用的class
+            if (!"style".equals(child.getNodeName())) {
+                serialize(child);
+            }
+        }
+        buffer.append("<style type=\"text/css\">").append(facade.takePendingStyles()).append("</style></head>");
+        appendStartTag(facade.getBody());
+    }
+
+    /**
+     * 输出并移除parent中所有的子节点
+     */
+    private void writeChildren(Element parent) throws IOException {
+        writeStyles();
+        Node child;
+        while ((child = parent.getFirstChild()) != null) {
+            serialize(child);
+            parent.removeChild(child);
+        }
+    }
+
+    /** 输出新使用的css class */
+    private void writeStyles() {
+        String styles = facade.takePendingStyles();
+        if (!styles.isEmpty()) {
+            buffer.append("<style type=\"text/css\">").append(styles).append("</style>");
+        }
+    }
+
+    private void serialize(Node node) throws IOException {
+        try {
+            serializer.transform(new DOMSource(node), new StreamResult(buffer));
+        } catch (TransformerException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void appendStartTag(Element element) {
+        buffer.append('<').append(element.getTagName());
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            buffer.append(' ').append(attribute.getName()).append("=\"")
+                    .append(escapeAttribute(attribute.getValue())).append('"');
+        }
+        buffer.append('>');
+    }
+
+    private static String escapeAttribute(String value) {
+        return value.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;");
+    }
+
+    /**
+     * 把buffer中的内容写到Writer中
+     */
+    private void write() throws IOException {
+        StringBuffer sb = buffer.getBuffer();
+        if (sb.length() == 0) {
+            return;
+        }
+        out.append(sb);
+        if (unflushed < 0 || unflushed + sb.length() >= FLUSH_CHARS) {
+            out.flush();
+            unflushed = 0;
+        } else {
+            unflushed += sb.length();
+        }
+        sb.setLength(0);
+    }
+
+    /**
+     * 记录新生成的css class，供分段输出
+     */
+    private static final class StyleTrackingFacade extends HtmlDocumentFacade {
+        /** 父类的构造方法中已经会生成class，这两个字段在第一次使用时创建，不能有初始值 */
+        private Set<String> classNames;
+
+        private StringBuilder pending;
+
+        StyleTrackingFacade(Document document) {
+            super(document);
+        }
+
+        @Override
+        public String getOrCreateCssClass(String classNamePrefix, String style) {
+            String className = super.getOrCreateCssClass(classNamePrefix, style);
+            if (classNames == null) {
+                classNames = new HashSet<>();
+                pending = new StringBuilder();
+            }
+            if (classNames.add(className)) {
+                pending.append('.').append(className).append('{').append(style).append("}\n");
+            }
+            return className;
+        }
+
+        /**
+         * 取出上次之后新生成的css规则
+         * @return
+         */
+        String takePendingStyles() {
+            if (pending == null) {
+                return "";
+            }
+            String styles = pending.toString();
+            pending.setLength(0);
+            return styles;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package html;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 把DOM输出为html的Transformer池
+ *
+ * 查找和创建TransformerFactory、Transformer的开销远大于输出一个段落，
+ * 转换结束后Transformer放回池中供下一次转换使用。
+ * Transformer不是线程安全的，同一时间只能由一个转换使用。
+ */
+final class TransformerPool {
+    /** 池中最多保留的Transformer个数，超出的直接丢弃 */
+    private static final int MAX_IDLE = 16;
+
+    private static final TransformerFactory FACTORY = TransformerFactory.newInstance();
+
+    private static final BlockingQueue<Transformer> IDLE = new ArrayBlockingQueue<>(MAX_IDLE);
+
+    private TransformerPool() {
+    }
+
+    /**
+     * 取出一个输出html的Transformer，编码为utf-8并缩进
+     * @return
+     * @throws TransformerConfigurationException
+     */
+    static Transformer acquire() throws TransformerConfigurationException {
+        Transformer transformer = IDLE.poll();
+        if (transformer != null) {
+            return transformer;
+        }
+        // TransformerFactory不保证线程安全
+        synchronized (FACTORY) {
+            transformer = FACTORY.newTransformer();
+        }
+        transformer.setOutputProperty(OutputKeys.ENCODING, "utf-8");
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.setOutputProperty(OutputKeys.METHOD, "html");
+        return transformer;
+    }
+
+    /**
+     * 用完之后放回池中，使用者不能修改输出属性或设置参数
+     * （JDK自带的identity Transformer调用clearParameters会抛出空指针异常）
+     * @param transformer
+     */
+    static void release(Transformer transformer) {
+        IDLE.offer(transformer);
+    }
+}
@@ -0,0 +1,231 @@
+package html;
+
+import org.apache.poi.ss.usermodel.*;
+
+import java.util.Arrays;
+
+/**
+ * sheet中需要输出的行和列
+ *
+ * 稀疏模式下先扫描一遍已有的行，只保留有内容、有可见格式（填充或边框）或与合并区域相交的行，
+ * 每行去掉末尾的空单元格，隐藏的列不输出。渲染时只遍历保留的行，
+ * 中间被跳过的空行和隐藏行合并为一个占位行，耗时只与内容的多少有关，与sheet的范围无关。
+ */
+final class UsedRange {
+    private final Sheet sheet;
+
+    private final int firstRow;
+
+    private final int size;
+
+    /** 保留的行号，为null时表示从firstRow开始的连续行 */
+    private final int[] rows;
+
+    /** 每个保留的行需要输出的列数 */
+    private final int[] columnCounts;
+
+    /** visibleBefore[c]为c之前未隐藏的列数，为null时没有隐藏的列 */
+    private final int[] visibleBefore;
+
+    private UsedRange(Sheet sheet, int firstRow, int size, int[] rows, int[] columnCounts, int[] visibleBefore) {
+        this.sheet = sheet;
+        this.firstRow = firstRow;
+        this.size = size;
+        this.rows = rows;
+        this.columnCounts = columnCounts;
+        this.visibleBefore = visibleBefore;
+    }
+
+    /**
+     * 从第一行到最后一行全部输出，与原来的渲染方式相同
+     * @param sheet
+     * @return
+     */
+    static UsedRange all(Sheet sheet) {
+        int firstRow = sheet.getFirstRowNum();
+        return new UsedRange(sheet, firstRow, sheet.getLastRowNum() - firstRow + 1, null, null, null);
+    }
+
+    /**
+     * 扫描sheet中实际使用的范围
+     * @param sheet
+     * @param merged sheet的合并区域，与合并区域相交的行总是保留
+     * @return
+     */
+    static UsedRange of(Sheet sheet, MergedRegionGrid merged) {
+        Workbook wb = sheet.getWorkbook();
+        // 按样式索引缓存样式是否有可见的格式：0未知，1有，2没有
+        byte[] visibleStyles = new byte[wb.getNumCellStyles()];
+        int[] rows = new int[16];
+        int[] columnCounts = new int[16];
+        int size = 0;
+        int maxColumns = 0;
+        for (Row row : sheet) {
+            int rowNum = row.getRowNum();
+            int columnCount = merged.getLastColumnInRow(rowNum) + 1;
+            if (columnCount == 0 && row.getZeroHeight()) {
+                continue;
+            }
+            for (int col = row.getLastCellNum() - 1; col >= columnCount; col--) {
+                Cell cell = row.getCell(col);
+                if (cell != null && isUsed(cell, visibleStyles)) {
+                    columnCount = col + 1;
+                    break;
+                }
+            }
+            if (columnCount == 0 && !merged.hasRegions(rowNum)) {
+                continue;
+            }
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+                columnCounts = Arrays.copyOf(columnCounts, size * 2);
+            }
+            rows[size] = rowNum;
+            columnCounts[size] = columnCount;
+            size++;
+            maxColumns = Math.max(maxColumns, columnCount);
+        }
+        // 合并区域中不存在的行也需要保留，与已有的行一起按行号排序，
+        // 整列合并（例如A:A）只到sheet的最后一行为止
+        int lastRow = sheet.getLastRowNum();
+        for (int i = 0; i < merged.size(); i++) {
+            int regionLastRow = Math.min(merged.getLastRow(i), lastRow);
+            for (int r = merged.getFirstRow(i); r <= regionLastRow; r++) {
+                if (sheet.getRow(r) == null) {
+                    if (size == rows.length) {
+                        rows = Arrays.copyOf(rows, size * 2);
+                        columnCounts = Arrays.copyOf(columnCounts, size * 2);
+                    }
+                    rows[size] = r;
+                    columnCounts[size] = merged.getLastColumnInRow(r) + 1;
+                    maxColumns = Math.max(maxColumns, columnCounts[size]);
+                    size++;
+                }
+            }
+        }
+        if (merged.size() > 0) {
+            size = sort(rows, columnCounts, size);
+        }
+        return new UsedRange(sheet, 0, size, rows, columnCounts, visibleBefore(sheet, maxColumns));
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getRowNum(int index) {
+        return rows == null ? firstRow + index : rows[index];
+    }
+
+    /**
+     * 需要输出的列数
+     */
+    int getColumnCount(int index) {
+        if (columnCounts == null) {
+            Row row = sheet.getRow(firstRow + index);
+            return row == null ? 0 : row.getLastCellNum();
+        }
+        return columnCounts[index];
+    }
+
+    /**
+     * 与前一个输出的行之间是否有被跳过的行
+     */
+    boolean hasGapBefore(int index) {
+        return rows != null && index > 0 && rows[index] > rows[index - 1] + 1;
+    }
+
+    boolean isColumnHidden(int col) {
+        return visibleBefore != null && col + 1 < visibleBefore.length && visibleBefore[col + 1] == visibleBefore[col];
+    }
+
+    /**
+     * 合并区域中未隐藏的列数
+     */
+    int getColSpan(MergedRegionGrid merged, int region) {
+        if (visibleBefore == null) {
+            return merged.getColSpan(region);
+        }
+        // 保留的行的列数包含了合并区域，区域的列不会超出数组的范围
+        return visibleBefore[merged.getLastColumn(region) + 1] - visibleBefore[merged.getFirstColumn(region)];
+    }
+
+    private static int[] visibleBefore(Sheet sheet, int columns) {
+        int[] visibleBefore = null;
+        for (int col = 0; col < columns; col++) {
+            if (sheet.isColumnHidden(col)) {
+                if (visibleBefore == null) {
+                    visibleBefore = new int[columns + 1];
+                    for (int c = 0; c <= col; c++) {
+                        visibleBefore[c] = c;
+                    }
+                }
+                visibleBefore[col + 1] = visibleBefore[col];
+            } else if (visibleBefore != null) {
+                visibleBefore[col + 1] = visibleBefore[col] + 1;
+            }
+        }
+        return visibleBefore;
+    }
+
+    /**
+     * 单元格是否有值或可见的格式
+     */
+    private static boolean isUsed(Cell cell, byte[] visibleStyles) {
+        switch (cell.getCellType()) {
+            case BLANK:
+                break;
+            case STRING:
+                if (cell.getRichStringCellValue().getString().isEmpty()) {
+                    break;
+                }
+                return true;
+            default:
+                return true;
+        }
+        CellStyle style = cell.getCellStyle();
+        int index = style.getIndex() & 0xffff;
+        if (index >= visibleStyles.length) {
+            return hasVisibleFormat(style);
+        }
+        if (visibleStyles[index] == 0) {
+            visibleStyles[index] = (byte) (hasVisibleFormat(style) ? 1 : 2);
+        }
+        return visibleStyles[index] == 1;
+    }
+
+    /**
+     * 样式是否有可见的格式（填充或边框）
+     */
+    static boolean hasVisibleFormat(CellStyle style) {
+        return style.getFillPattern() != FillPatternType.NO_FILL
+                || style.getBorderTop() != BorderStyle.NONE
+                || style.getBorderRight() != BorderStyle.NONE
+                || style.getBorderBottom() != BorderStyle.NONE
+                || style.getBorderLeft() != BorderStyle.NONE;
+    }
+
+    /**
+     * 按行号排序，合并区域的行可能重复，排序后去重
+     * @return 去重后的行数
+     */
+    private static int sort(int[] rows, int[] columnCounts, int size) {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) rows[i] << 32) | columnCounts[i];
+        }
+        Arrays.sort(keys);
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            int rowNum = (int) (keys[i] >>> 32);
+            if (n > 0 && rows[n - 1] == rowNum) {
+                columnCounts[n - 1] = Math.max(columnCounts[n - 1], (int) keys[i]);
+                continue;
+            }
+            rows[n] = rowNum;
+            columnCounts[n] = (int) keys[i];
+            n++;
+        }
+        return n;
+    }
+}
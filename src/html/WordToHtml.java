@@ -2,24 +2,16 @@ package html;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.FileUtils;
-import org.apache.poi.hwpf.HWPFDocument;
-import org.apache.poi.hwpf.converter.WordToHtmlConverter;
 import org.apache.poi.xwpf.converter.core.BasicURIResolver;
 import org.apache.poi.xwpf.converter.core.FileImageExtractor;
 import org.apache.poi.xwpf.converter.xhtml.XHTMLConverter;
 import org.apache.poi.xwpf.converter.xhtml.XHTMLOptions;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
-import org.w3c.dom.Document;
 
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 
 public class WordToHtml {
     /**
@@ -38,40 +30,28 @@ public class WordToHtml {
     public String word2003ToHtml(String wordPath, String wordName,
                                  String suffix) throws IOException, TransformerException,
             ParserConfigurationException {
-        File directory = new File(".");
-        String htmlName = directory.getCanonicalPath() + SHA256.getSHA(wordName) + ".html";
-
-        // 原word文档
-        final String file = wordPath + File.separator + wordName + suffix;
-        InputStream input = new FileInputStream(new File(file));
-
-        HWPFDocument wordDocument = new HWPFDocument(input);
-        WordToHtmlConverter wordToHtmlConverter = new ImageWordToHtmlConverter(
-                DocumentBuilderFactory.newInstance().newDocumentBuilder()
-                        .newDocument());
-
-        wordToHtmlConverter.processDocument(wordDocument);
-        Document htmlDocument = wordToHtmlConverter.getDocument();
+        // 直接在内存中生成，不经过临时文件
+        StringWriter writer = new StringWriter();
+        word2003ToHtml(wordPath, wordName, suffix, writer);
+        return writer.toString();
+    }
 
-        DOMSource domSource = new DOMSource(htmlDocument);
-        StreamResult streamResult = new StreamResult(new File(htmlName));
-        TransformerFactory tf = TransformerFactory.newInstance();
-        Transformer serializer = tf.newTransformer();
-        serializer.setOutputProperty(OutputKeys.ENCODING, "utf-8");
-        serializer.setOutputProperty(OutputKeys.INDENT, "yes");
-        serializer.setOutputProperty(OutputKeys.METHOD, "html");
-        serializer.transform(domSource, streamResult);
-        File initFile = new File(htmlName);
-        FileReader reader = new FileReader(initFile);
-        BufferedReader bReader = new BufferedReader(reader);
-        StringBuilder sb = new StringBuilder();
-        String s = "";
-        while ((s =bReader.readLine()) != null) {
-            sb.append(s);
-        }
-        bReader.close();
-        FileUtils.deleteQuietly(initFile);
-        return sb.toString();
+    /**
+     * 将word2003转换为html，写入到writer中
+     *
+     * @param wordPath
+     *            word文件路径
+     * @param wordName
+     *            word文件名称无后缀
+     * @param suffix
+     *            word文件后缀
+     * @param writer
+     *            输出html的writer，由调用者关闭；写入OutputStream时使用utf-8编码的OutputStreamWriter
+     * @throws IOException
+     */
+    public void word2003ToHtml(String wordPath, String wordName,
+                               String suffix, Writer writer) throws IOException {
+        StreamingWordToHtmlConverter.convert(new File(wordPath + File.separator + wordName + suffix), writer);
     }
 
     /**
@@ -92,46 +72,23 @@ public class WordToHtml {
     public String word2003ToHtml(String wordPath, String wordName,
                                  String suffix,String savePath) throws IOException, TransformerException,
             ParserConfigurationException {
-        String htmlName = SHA256.getSHA(wordName) + ".html";
-        String htmlPath = savePath + htmlName;
-
         // 原word文档
         final String file = wordPath + File.separator + wordName + suffix;
-        InputStream input = new FileInputStream(new File(file));
-
-        HWPFDocument wordDocument = new HWPFDocument(input);
-        WordToHtmlConverter wordToHtmlConverter = new ImageWordToHtmlConverter(
-                DocumentBuilderFactory.newInstance().newDocumentBuilder()
-                        .newDocument());
-
-        // 判断html文件是否存在，每次重新生成
-        File htmlFile = new File(htmlPath);
-
-        // 解析word文档
-        wordToHtmlConverter.processDocument(wordDocument);
-        Document htmlDocument = wordToHtmlConverter.getDocument();
 
-        // 生成html文件上级文件夹
-        File folder = new File(savePath);
-        if (!folder.exists()) {
-            folder.mkdirs();
+        // 按文件内容命名，内容没有变化时直接返回上次生成的html
+        String htmlName = ConversionCache.key(new File(file), "doc") + ".html";
+        File htmlFile = new File(savePath + htmlName);
+        // 结果文件写完后才改名，存在即是完整的
+        if (htmlFile.exists()) {
+            return htmlName;
         }
 
-        // 生成html文件地址
-        OutputStream outStream = new FileOutputStream(htmlFile);
-
-        DOMSource domSource = new DOMSource(htmlDocument);
-        StreamResult streamResult = new StreamResult(outStream);
-
-        TransformerFactory factory = TransformerFactory.newInstance();
-        Transformer serializer = factory.newTransformer();
-        serializer.setOutputProperty(OutputKeys.ENCODING, "utf-8");
-        serializer.setOutputProperty(OutputKeys.INDENT, "yes");
-        serializer.setOutputProperty(OutputKeys.METHOD, "html");
-
-        serializer.transform(domSource, streamResult);
-
-        outStream.close();
+        // 边解析边输出，不在内存中保留整个文档的DOM
+        ConversionCache.writeAtomically(htmlFile, out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            StreamingWordToHtmlConverter.convert(new File(file), writer);
+            writer.flush();
+        });
 
         return htmlName;
     }
@@ -199,21 +156,16 @@ public class WordToHtml {
      */
     public String word2007ToHtml(String wordPath, String wordName, String suffix,String savePath)
             throws IOException {
+        // 按文件内容命名，内容没有变化时直接返回上次生成的html
+        String htmlName = ConversionCache.key(new File(wordPath + File.separator + wordName + suffix), "docx") + ".html";
+        File file = new File(savePath + htmlName);
+        if (file.exists()) {
+            return htmlName;
+        }
         String html = word2007ToHtml(wordPath,wordName,suffix);
 
         byte[] sourceByte = html.getBytes();
-        String htmlName = SHA256.getSHA(wordName) + ".html";
-        if(null != sourceByte){
-            File file = new File(savePath + htmlName);//文件路径（路径+文件名）
-            if (!file.exists()) {	//文件不存在则创建文件，先创建目录
-                File dir = new File(file.getParent());
-                dir.mkdirs();
-                file.createNewFile();
-            }
-            FileOutputStream outStream = new FileOutputStream(file);	//文件输出流用于将数据写入文件
-            outStream.write(sourceByte);
-            outStream.close();	//关闭文件输出流
-        }
+        ConversionCache.writeAtomically(file, out -> out.write(sourceByte));
         return htmlName;
     }
 
@@ -0,0 +1,355 @@
+package html;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.DimensionsRecord;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.RowRecord;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ooxml.util.SAXHelper;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.util.ZipSecureFile;
+import org.apache.poi.poifs.filesystem.DocumentInputStream;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * 转换之前估计Excel文件的规模，并检查转换选项中的资源限制
+ *
+ * 不创建workbook，xlsx只读取压缩包的目录、workbook.xml和每个sheet开头的dimension，
+ * xls只读取全局记录和每个sheet开头的几个记录。
+ * 按sheet大小推算的单元格数是真实的上限，单元格数限制和是否流式转换都按这个上限判断，
+ * 伪造的dimension不能让超大的sheet绕过限制。
+ * 估计的单元格数另外取dimension的范围与这个上限中较小的一个，只用于显示，
+ * 只有几个相距很远的单元格时dimension很大，但sheet的大小决定了单元格不可能更多。
+ */
+final class WorkbookProbe {
+    /** xlsx中一个单元格至少占用的字节数，例如 &lt;c r="A1"&gt;&lt;v&gt;1&lt;/v&gt;&lt;/c&gt; */
+    private static final int XLSX_CELL_BYTES = 20;
+
+    /** xls中一个单元格记录至少占用的字节数（Blank记录） */
+    private static final int XLS_CELL_BYTES = 10;
+
+    /** 与ZipSecureFile一致，解压后小于这个大小的文件不检查压缩比 */
+    private static final long GRACE_ENTRY_SIZE = 100 * 1024;
+
+    private final boolean xlsx;
+
+    private final long fileSize;
+
+    private final int sheetCount;
+
+    /** 按sheet大小推算的单元格数上限 */
+    private final long cellBound;
+
+    private final long estimatedCells;
+
+    private WorkbookProbe(boolean xlsx, long fileSize, int sheetCount, long cellBound, long estimatedCells) {
+        this.xlsx = xlsx;
+        this.fileSize = fileSize;
+        this.sheetCount = sheetCount;
+        this.cellBound = cellBound;
+        this.estimatedCells = estimatedCells;
+    }
+
+    /**
+     * 估计文件的规模，超过选项中的限制时抛出异常
+     * @param source xls或xlsx文件
+     * @param options 转换选项
+     * @return
+     * @throws IOException 文件无法读取或超过限制
+     */
+    static WorkbookProbe of(File source, ExcelToHtmlOptions options) throws IOException {
+        FileMagic magic;
+        try (InputStream is = FileMagic.prepareToCheckMagic(new FileInputStream(source))) {
+            magic = FileMagic.valueOf(is);
+        }
+        WorkbookProbe probe;
+        switch (magic) {
+            case OLE2:
+                probe = ofXls(source);
+                break;
+            case OOXML:
+                probe = ofXlsx(source, options.getMinInflateRatio());
+                break;
+            default:
+                throw new IOException("不是Excel文件: " + source.getPath());
+        }
+        if (options.getMaxCells() > 0 && probe.cellBound > options.getMaxCells()) {
+            throw new IOException("单元格数超过限制: 最多" + probe.cellBound + "，限制" + options.getMaxCells());
+        }
+        return probe;
+    }
+
+    boolean isXlsx() {
+        return xlsx;
+    }
+
+    long getFileSize() {
+        return fileSize;
+    }
+
+    int getSheetCount() {
+        return sheetCount;
+    }
+
+    long getCellBound() {
+        return cellBound;
+    }
+
+    /**
+     * 参考dimension估计的单元格数，可能小于实际的数量，不能用于资源限制
+     * @return
+     */
+    long getEstimatedCells() {
+        return estimatedCells;
+    }
+
+    /**
+     * 是否应该使用流式转换
+     * @param options
+     * @return
+     */
+    boolean isStreaming(ExcelToHtmlOptions options) {
+        return options.getStreamingThreshold() > 0 && cellBound > options.getStreamingThreshold();
+    }
+
+    private static WorkbookProbe ofXlsx(File source, double minInflateRatio) throws IOException {
+        // 先按压缩包的目录检查压缩比，不解压任何文件；实际解压时仍由ZipSecureFile按全局设置检查
+        try (ZipSecureFile zip = new ZipSecureFile(source)) {
+            Enumeration<ZipArchiveEntry> entries = zip.getEntries();
+            while (entries.hasMoreElements()) {
+                ZipArchiveEntry entry = entries.nextElement();
+                long size = entry.getSize();
+                if (size > GRACE_ENTRY_SIZE && (double) entry.getCompressedSize() / size < minInflateRatio) {
+                    throw new IOException("压缩比超过限制: " + entry.getName() + " 压缩后" + entry.getCompressedSize()
+                            + "字节，解压后" + size + "字节");
+                }
+            }
+        }
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(source, PackageAccess.READ);
+        } catch (OpenXML4JException e) {
+            throw new IOException("无法读取的xlsx文件", e);
+        }
+        try {
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) new XSSFReader(pkg).getSheetsData();
+            int sheetCount = 0;
+            long bound = 0;
+            long cells = 0;
+            while (sheets.hasNext()) {
+                long area;
+                try (InputStream is = sheets.next()) {
+                    area = readDimension(is);
+                }
+                long sheetBound = Math.max(sheets.getSheetPart().getSize(), 0) / XLSX_CELL_BYTES;
+                bound += sheetBound;
+                cells += estimate(area, sheetBound);
+                sheetCount++;
+            }
+            return new WorkbookProbe(true, source.length(), sheetCount, bound, cells);
+        } catch (OpenXML4JException e) {
+            throw new IOException("无法读取的xlsx文件", e);
+        } finally {
+            pkg.revert();
+        }
+    }
+
+    /**
+     * 一个sheet的单元格数
+     * @param area dimension范围内的单元格数，0表示没有dimension
+     * @param byteBound 按sheet大小推算的单元格数上限
+     * @return
+     */
+    private static long estimate(long area, long byteBound) {
+        return area > 0 ? Math.min(area, byteBound) : byteBound;
+    }
+
+    /**
+     * 读取sheet xml开头的dimension，读到sheetData之前结束
+     * @return dimension范围内的单元格数，没有dimension时返回0
+     */
+    private static long readDimension(InputStream is) throws IOException {
+        DimensionHandler handler = new DimensionHandler();
+        try {
+            XMLReader xmlReader = SAXHelper.newXMLReader();
+            xmlReader.setContentHandler(handler);
+            xmlReader.parse(new InputSource(is));
+        } catch (StopParsing e) {
+            // 已经读到dimension或sheetData
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        } catch (SAXException e) {
+            throw new IOException("无法解析的xlsx文件", e);
+        }
+        return handler.area;
+    }
+
+    private static WorkbookProbe ofXls(File source) throws IOException {
+        try (POIFSFileSystem fs = new POIFSFileSystem(source, true);
+             DocumentInputStream in = fs.createDocumentInputStream(HSSFWorkbook.getWorkbookDirEntryName(fs.getRoot()))) {
+            long streamSize = in.available();
+            RecordCursor cursor = new RecordCursor(in);
+            // 全局记录中的BoundSheet记录给出每个sheet的BOF记录在流中的位置
+            List<Long> offsets = new ArrayList<>();
+            while (cursor.next() && cursor.sid != EOFRecord.sid) {
+                if (cursor.sid == BoundSheetRecord.sid && cursor.length >= 4) {
+                    offsets.add(cursor.readInt() & 0xffffffffL);
+                }
+            }
+            offsets.sort(null);
+            long bound = 0;
+            long cells = 0;
+            for (int i = 0; i < offsets.size(); i++) {
+                long offset = offsets.get(i);
+                long end = i + 1 < offsets.size() ? offsets.get(i + 1) : streamSize;
+                long area = 0;
+                if (cursor.seek(offset) && cursor.next() && cursor.sid == BOFRecord.sid) {
+                    // dimension记录在所有的行记录之前，遇到行记录时说明没有dimension
+                    while (cursor.next() && cursor.sid != EOFRecord.sid && cursor.sid != RowRecord.sid) {
+                        if (cursor.sid == DimensionsRecord.sid && cursor.length >= 12) {
+                            long rows = (cursor.readInt() & 0xffffffffL);
+                            rows = (cursor.readInt() & 0xffffffffL) - rows;
+                            int cols = cursor.readUShort();
+                            cols = cursor.readUShort() - cols;
+                            area = Math.max(rows, 0) * Math.max(cols, 0);
+                            break;
+                        }
+                    }
+                }
+                long sheetBound = Math.max(end - offset, 0) / XLS_CELL_BYTES;
+                bound += sheetBound;
+                cells += estimate(area, sheetBound);
+            }
+            return new WorkbookProbe(false, source.length(), offsets.size(), bound, cells);
+        }
+    }
+
+    /**
+     * 按记录头顺序读取xls的Workbook流，只读取需要的记录内容，其余的直接跳过
+     */
+    private static final class RecordCursor {
+        private final DocumentInputStream in;
+
+        /** 流中的当前位置 */
+        private long position;
+
+        /** 当前记录的内容在流中的结束位置 */
+        private long recordEnd;
+
+        private int sid;
+
+        private int length;
+
+        RecordCursor(DocumentInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * 移动到下一个记录
+         * @return 流已经结束时返回false
+         */
+        boolean next() throws IOException {
+            if (!skipTo(recordEnd) || in.available() < 4) {
+                return false;
+            }
+            sid = in.readUShort();
+            length = in.readUShort();
+            position += 4;
+            recordEnd = position + length;
+            return true;
+        }
+
+        /**
+         * 移动到流中的位置，下一次调用{@link #next()}时读取这个位置的记录
+         * @return 位置超出流的范围时返回false
+         */
+        boolean seek(long offset) throws IOException {
+            recordEnd = offset;
+            return offset >= position && skipTo(offset);
+        }
+
+        int readInt() {
+            position += 4;
+            return in.readInt();
+        }
+
+        int readUShort() {
+            position += 2;
+            return in.readUShort();
+        }
+
+        private boolean skipTo(long offset) throws IOException {
+            while (position < offset) {
+                long skipped = in.skip(offset - position);
+                if (skipped <= 0) {
+                    return false;
+                }
+                position += skipped;
+            }
+            return position == offset;
+        }
+    }
+
+    private static final class StopParsing extends SAXException {
+        private static final long serialVersionUID = 1L;
+
+        StopParsing() {
+            super("dimension");
+        }
+    }
+
+    private static final class DimensionHandler extends DefaultHandler {
+        private long area;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            if ("dimension".equals(localName)) {
+                String ref = attributes.getValue("ref");
+                if (ref != null) {
+                    int colon = ref.indexOf(':');
+                    String first = colon < 0 ? ref : ref.substring(0, colon);
+                    String last = colon < 0 ? ref : ref.substring(colon + 1);
+                    long rows = rowNumber(last) - rowNumber(first) + 1;
+                    long cols = XSSFEventReader.columnIndex(last) - XSSFEventReader.columnIndex(first) + 1;
+                    area = Math.max(rows, 0) * Math.max(cols, 0);
+                }
+                throw new StopParsing();
+            }
+            if ("sheetData".equals(localName)) {
+                throw new StopParsing();
+            }
+        }
+
+        /** 单元格引用（例如B12）中的行号 */
+        private static long rowNumber(String ref) {
+            long row = 0;
+            for (int i = 0; i < ref.length(); i++) {
+                char c = ref.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    row = row * 10 + (c - '0');
+                }
+            }
+            return row;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package html;
+
+import org.apache.poi.ooxml.util.SAXHelper;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 使用SAX逐行读取xlsx文件
+ *
+ * 只在内存中保留样式表和共享字符串表，sheet的xml按顺序解析，
+ * 每个单元格通过{@link SheetEventListener}交给调用者处理。
+ * 合并区域写在sheet xml的末尾，所以每个sheet会先扫描一遍合并区域，
+ * 第二遍再读取单元格；不需要合并区域时使用{@link #readCells}，每个sheet只解析一遍。
+ */
+public class XSSFEventReader {
+    private final StylesTable stylesTable;
+
+    private final ReadOnlySharedStringsTable sharedStrings;
+
+    private final boolean date1904;
+
+    private final List<String> sheetNames = new ArrayList<>();
+
+    private final List<PackagePart> sheetParts = new ArrayList<>();
+
+    public XSSFEventReader(OPCPackage pkg) throws IOException {
+        try {
+            XSSFReader reader = new XSSFReader(pkg);
+            stylesTable = reader.getStylesTable();
+            sharedStrings = new ReadOnlySharedStringsTable(pkg, false);
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                sheets.next().close();
+                sheetNames.add(sheets.getSheetName());
+                sheetParts.add(sheets.getSheetPart());
+            }
+            WorkbookPropertiesHandler workbookProperties = new WorkbookPropertiesHandler();
+            try (InputStream is = reader.getWorkbookData()) {
+                parse(is, workbookProperties);
+            }
+            date1904 = workbookProperties.date1904;
+        } catch (OpenXML4JException | SAXException e) {
+            throw new IOException("无法读取的xlsx文件", e);
+        }
+    }
+
+    public List<String> getSheetNames() {
+        return Collections.unmodifiableList(sheetNames);
+    }
+
+    public StylesTable getStylesTable() {
+        return stylesTable;
+    }
+
+    public boolean isDate1904() {
+        return date1904;
+    }
+
+    ReadOnlySharedStringsTable getSharedStrings() {
+        return sharedStrings;
+    }
+
+    PackagePart getSheetPart(int sheetIndex) {
+        return sheetParts.get(sheetIndex);
+    }
+
+    /**
+     * 按顺序读取所有sheet
+     * @param listener
+     * @throws IOException
+     */
+    public void read(SheetEventListener listener) throws IOException {
+        for (int i = 0; i < sheetParts.size(); i++) {
+            readSheet(i, listener);
+        }
+    }
+
+    /**
+     * 按顺序读取所有sheet的单元格，不扫描合并区域，listener收到的合并区域为空
+     * @param listener
+     * @throws IOException
+     */
+    public void readCells(SheetEventListener listener) throws IOException {
+        for (int i = 0; i < sheetParts.size(); i++) {
+            readSheet(i, listener, false);
+        }
+    }
+
+    /**
+     * 读取一个sheet
+     * @param sheetIndex sheet的编号
+     * @param listener
+     * @throws IOException
+     */
+    public void readSheet(int sheetIndex, SheetEventListener listener) throws IOException {
+        readSheet(sheetIndex, listener, true);
+    }
+
+    /**
+     * @param mergedRegions 是否先扫描一遍合并区域
+     */
+    private void readSheet(int sheetIndex, SheetEventListener listener, boolean mergedRegions) throws IOException {
+        PackagePart part = sheetParts.get(sheetIndex);
+        MergedCellsHandler mergedCells = new MergedCellsHandler();
+        if (mergedRegions) {
+            try (InputStream is = part.getInputStream()) {
+                parse(is, mergedCells);
+            }
+        }
+        SheetHandler handler = new SheetHandler(sheetIndex,
+                MergedRegionGrid.clamp(mergedCells.regions, mergedCells.lastRow), listener);
+        try (InputStream is = part.getInputStream()) {
+            parse(is, handler);
+        }
+        handler.finish();
+    }
+
+    static void parse(InputStream is, ContentHandler handler) throws IOException {
+        try {
+            XMLReader xmlReader = SAXHelper.newXMLReader();
+            xmlReader.setContentHandler(handler);
+            xmlReader.parse(new InputSource(is));
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        } catch (SAXException e) {
+            if (e.getException() instanceof IOException) {
+                throw (IOException) e.getException();
+            }
+            throw new IOException("无法解析的xlsx文件", e);
+        }
+    }
+
+    /**
+     * 把单元格引用（例如B12）的列转换为列号
+     */
+    static int columnIndex(String ref) {
+        int col = 0;
+        for (int i = 0; i < ref.length(); i++) {
+            char c = ref.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            col = col * 26 + (c - 'A' + 1);
+        }
+        return col - 1;
+    }
+
+    /**
+     * 读取workbook.xml中的1904日期系统设置
+     */
+    private static class WorkbookPropertiesHandler extends DefaultHandler {
+        private boolean date1904;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if ("workbookPr".equals(localName)) {
+                String value = attributes.getValue("date1904");
+                date1904 = "1".equals(value) || "true".equals(value);
+            }
+        }
+    }
+
+    /**
+     * 第一遍扫描，只收集合并区域和最后一行的行号
+     */
+    private static class MergedCellsHandler extends DefaultHandler {
+        private final List<CellRangeAddress> regions = new ArrayList<>();
+
+        private int lastRow = -1;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if ("row".equals(localName)) {
+                String r = attributes.getValue("r");
+                lastRow = r == null ? lastRow + 1 : Math.max(lastRow, Integer.parseInt(r) - 1);
+            } else if ("mergeCell".equals(localName)) {
+                String ref = attributes.getValue("ref");
+                if (ref != null) {
+                    regions.add(CellRangeAddress.valueOf(ref));
+                }
+            }
+        }
+    }
+
+    /**
+     * 第二遍扫描，读取列宽和单元格
+     */
+    private class SheetHandler extends DefaultHandler {
+        private final int sheetIndex;
+
+        private final List<CellRangeAddress> mergedRegions;
+
+        private final SheetEventListener listener;
+
+        private final ColumnWidths columnWidths = new ColumnWidths();
+
+        private final StringBuilder text = new StringBuilder();
+
+        private final CellNumberFormatter numberFormatter = new CellNumberFormatter(date1904);
+
+        private boolean started;
+
+        private int rowNum = -1;
+
+        private int colNum;
+
+        private String cellType;
+
+        private int styleIndex;
+
+        private boolean inValue;
+
+        private boolean inInlineString;
+
+        private boolean inPhonetic;
+
+        private boolean inText;
+
+        SheetHandler(int sheetIndex, List<CellRangeAddress> mergedRegions, SheetEventListener listener) {
+            this.sheetIndex = sheetIndex;
+            this.mergedRegions = mergedRegions;
+            this.listener = listener;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes)
+                throws SAXException {
+            try {
+                switch (localName) {
+                    case "sheetFormatPr":
+                        String baseColWidth = attributes.getValue("baseColWidth");
+                        if (baseColWidth != null) {
+                            columnWidths.setDefaultColumnWidth(Integer.parseInt(baseColWidth) * 256);
+                        }
+                        break;
+                    case "col":
+                        String width = attributes.getValue("width");
+                        if (width != null) {
+                            columnWidths.setColumnWidth(Integer.parseInt(attributes.getValue("min")) - 1,
+                                    Integer.parseInt(attributes.getValue("max")) - 1,
+                                    (int) (Double.parseDouble(width) * 256));
+                        }
+                        break;
+                    case "sheetData":
+                        start();
+                        break;
+                    case "row":
+                        String r = attributes.getValue("r");
+                        rowNum = r == null ? rowNum + 1 : Integer.parseInt(r) - 1;
+                        colNum = -1;
+                        listener.startRow(rowNum);
+                        break;
+                    case "c":
+                        String ref = attributes.getValue("r");
+                        colNum = ref == null ? colNum + 1 : columnIndex(ref);
+                        cellType = attributes.getValue("t");
+                        String s = attributes.getValue("s");
+                        styleIndex = s == null ? 0 : Integer.parseInt(s);
+                        text.setLength(0);
+                        break;
+                    case "v":
+                        inValue = true;
+                        text.setLength(0);
+                        break;
+                    case "is":
+                        inInlineString = true;
+                        break;
+                    case "rPh":
+                        inPhonetic = true;
+                        break;
+                    case "t":
+                        inText = inInlineString && !inPhonetic;
+                        break;
+                    default:
+                        break;
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            try {
+                switch (localName) {
+                    case "v":
+                        inValue = false;
+                        break;
+                    case "t":
+                        inText = false;
+                        break;
+                    case "rPh":
+                        inPhonetic = false;
+                        break;
+                    case "is":
+                        inInlineString = false;
+                        break;
+                    case "c":
+                        listener.cell(rowNum, colNum, cellValue(), styleIndex);
+                        break;
+                    case "row":
+                        listener.endRow(rowNum);
+                        break;
+                    default:
+                        break;
+                }
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inValue || inText) {
+                text.append(ch, start, length);
+            }
+        }
+
+        private void start() throws IOException {
+            if (!started) {
+                started = true;
+                listener.startSheet(sheetIndex, sheetNames.get(sheetIndex), mergedRegions, columnWidths);
+            }
+        }
+
+        /**
+         * 没有sheetData的sheet也需要开始和结束事件
+         */
+        void finish() throws IOException {
+            start();
+            listener.endSheet(sheetIndex);
+        }
+
+        private String cellValue() {
+            if (text.length() == 0) {
+                return "";
+            }
+            String value = text.toString();
+            if (cellType == null || "n".equals(cellType)) {
+                double number = Double.parseDouble(value);
+                // 公式保存的数字结果与数字单元格一样按数据格式输出
+                XSSFCellStyle style = stylesTable == null ? null : stylesTable.getStyleAt(styleIndex);
+                if (style == null) {
+                    // 没有样式表或样式索引超出范围时按常规格式输出
+                    return numberFormatter.format(number, 0, null);
+                }
+                return numberFormatter.format(number, style.getDataFormat(), style.getDataFormatString());
+            }
+            switch (cellType) {
+                case "s":
+                    return sharedStrings.getItemAt(Integer.parseInt(value)).getString();
+                case "inlineStr":
+                case "str":
+                    return value;
+                default:
+                    // 布尔值和错误值与usermodel保持一致，不输出内容
+                    return "";
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package html;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 大文件xlsx转换为html
+ *
+ * 不创建XSSFWorkbook，使用{@link XSSFEventReader}逐行读取sheet的xml并立即写出，
+ * 内存中只保留样式表、共享字符串表、合并区域和当前的一行。
+ * 输出与{@link ExcelToHtml}相同，但不处理条件格式，公式使用文件中保存的计算结果。
+ */
+public class XSSFEventToHtml {
+    /**
+     * xlsx转换为html
+     *
+     * @param sourcePath
+     *          xlsx文件路径
+     * @param savePath
+     *          存储路径
+     * @param saveName
+     *          存储名称
+     * @return 生成的html文件路径
+     */
+    public static String conversion(String sourcePath, String savePath, String saveName) throws IOException {
+        File source = new File(sourcePath);
+        File file = new File(savePath + File.separator + saveName + ".html");
+        // 源文件的内容没有变化时直接使用上次的结果
+        String key = ConversionCache.key(source, "xlsx-stream");
+        if(ConversionCache.isCurrent(file, key)){
+            return file.getPath();
+        }
+        // 删除旧的缓存键后再写临时文件并改名，结果文件不会只写了一半
+        ConversionCache.invalidate(file);
+        ConversionCache.writeAtomically(file, out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            convert(source, writer);
+            writer.flush();
+        });
+        ConversionCache.markCurrent(file, key);
+        return file.getPath();
+    }
+
+    /**
+     * xlsx转换为html，写入到writer中
+     *
+     * @param source xlsx文件
+     * @param writer 输出html的writer
+     * @throws IOException
+     */
+    public static void convert(File source, Writer writer) throws IOException {
+        convert(source, writer, ExcelToHtmlOptions.defaults());
+    }
+
+    /**
+     * xlsx转换为html，写入到writer中
+     *
+     * @param source xlsx文件
+     * @param writer 输出html的writer
+     * @param options 使用其中的资源地址前缀和单元格数限制，其余选项不适用于流式转换
+     * @throws IOException
+     */
+    public static void convert(File source, Writer writer, ExcelToHtmlOptions options) throws IOException {
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(source, PackageAccess.READ);
+        } catch (InvalidFormatException e) {
+            throw new IOException("无法读取的xlsx文件", e);
+        }
+        try {
+            XSSFEventReader reader = new XSSFEventReader(pkg);
+            StylesTable stylesTable = reader.getStylesTable();
+            StreamingHtmlWriter html = new StreamingHtmlWriter(writer,
+                    new HtmlStyleSheet(index -> {
+                        // 没有样式表或样式索引超出范围时单元格不使用class
+                        XSSFCellStyle style = stylesTable == null ? null : stylesTable.getStyleAt(index);
+                        return style == null ? null : HtmlStyleSheet.toCss(null, style);
+                    }), options);
+            html.startDocument(reader.getSheetNames());
+            reader.read(html);
+            html.endDocument();
+        } finally {
+            // 只读打开的文件使用revert关闭
+            pkg.revert();
+        }
+    }
+}